@@ -0,0 +1,96 @@
+package com.openclassrooms.tourguide.benchmark;
+
+import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.spatial.AttractionIndex;
+import com.openclassrooms.tourguide.spatial.DistanceStrategy;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance computation and the proximity scan of a location over the attractions,
+ * through every attraction or through the spatial index, for each distance strategy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+	private static final int PROXIMITY_BUFFER = 100;
+
+	// gpsUtil has 26 attractions, the larger catalog is made of random ones
+	@Param({"26", "10000"})
+	int attractionCount;
+
+	@Param({"LAW_OF_COSINES", "HAVERSINE", "UNIT_VECTOR"})
+	DistanceStrategy distanceStrategy;
+
+	private RewardsService rewardsService;
+	private List<Attraction> attractions;
+	private AttractionIndex attractionIndex;
+	private Location[] locations;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		StubGpsUtil gpsUtil = new StubGpsUtil();
+		rewardsService = new RewardsService(gpsUtil, new StubRewardCentral());
+		rewardsService.setDistanceStrategy(distanceStrategy);
+		Random random = new Random(42);
+		attractions = new ArrayList<>(gpsUtil.getAttractions());
+		while (attractions.size() < attractionCount) {
+			attractions.add(new Attraction("attraction" + attractions.size(), "city", "state",
+					random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180));
+		}
+		attractions = attractions.subList(0, attractionCount);
+		attractionIndex = new AttractionIndex(attractions, PROXIMITY_BUFFER, distanceStrategy);
+		locations = new Location[1024];
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = new Location(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180);
+		}
+	}
+
+	private Location nextLocation() {
+		return locations[next++ & (locations.length - 1)];
+	}
+
+	@Benchmark
+	public double getDistance() {
+		return rewardsService.getDistance(attractions.get(0), nextLocation());
+	}
+
+	@Benchmark
+	public int nearAttractionFullScan() {
+		Location location = nextLocation();
+		int near = 0;
+		for (Attraction attraction : attractions) {
+			if (rewardsService.getDistance(attraction, location) <= PROXIMITY_BUFFER) {
+				near++;
+			}
+		}
+		return near;
+	}
+
+	@Benchmark
+	public int nearAttractionIndexedScan() {
+		Location location = nextLocation();
+		return attractionIndex.within(location.latitude, location.longitude).size();
+	}
+}
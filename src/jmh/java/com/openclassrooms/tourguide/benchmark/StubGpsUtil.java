@@ -0,0 +1,34 @@
+package com.openclassrooms.tourguide.benchmark;
+
+import gpsUtil.GpsUtil;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * GpsUtil without latency: the attractions are loaded once and the user locations are random
+ */
+public class StubGpsUtil extends GpsUtil {
+	private final List<Attraction> attractions;
+
+	public StubGpsUtil() {
+		this.attractions = List.copyOf(super.getAttractions());
+	}
+
+	@Override
+	public List<Attraction> getAttractions() {
+		return attractions;
+	}
+
+	@Override
+	public VisitedLocation getUserLocation(UUID userId) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Location location = new Location(random.nextDouble(-85.05112878, 85.05112878), random.nextDouble(-180, 180));
+		return new VisitedLocation(userId, location, new Date());
+	}
+}
@@ -0,0 +1,17 @@
+package com.openclassrooms.tourguide.benchmark;
+
+import rewardCentral.RewardCentral;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RewardCentral without latency, returning random points like the real one
+ */
+public class StubRewardCentral extends RewardCentral {
+
+	@Override
+	public int getAttractionRewardPoints(UUID attractionId, UUID userId) {
+		return ThreadLocalRandom.current().nextInt(1, 1000);
+	}
+}
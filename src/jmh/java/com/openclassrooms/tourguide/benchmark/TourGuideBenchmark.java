@@ -0,0 +1,133 @@
+package com.openclassrooms.tourguide.benchmark;
+
+import com.openclassrooms.tourguide.helper.InternalTestHelper;
+import com.openclassrooms.tourguide.mapper.NearAttractionMapperImpl;
+import com.openclassrooms.tourguide.model.NearAttractionResult;
+import com.openclassrooms.tourguide.service.RewardPointsCache;
+import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.spatial.ProximityMode;
+import com.openclassrooms.tourguide.user.User;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.VisitedLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service level hot paths with zero-latency GpsUtil and RewardCentral,
+ * so that only the cost of the TourGuide code and of its executors is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TourGuideBenchmark {
+	private static final int USERS = 1000;
+
+	private ExecutorService rewardsExecutor;
+	private ExecutorService trackingExecutor;
+	private RewardPointsCache rewardPointsCache;
+	private RewardsService rewardsService;
+	private TourGuideService tourGuideService;
+	private User user;
+	private VisitedLocation visitedLocation;
+
+	/**
+	 * Users visiting every attraction, new ones for each call since a reward is only calculated once
+	 */
+	@State(Scope.Thread)
+	public static class RewardedUsers {
+		@Param({"INDEX", "SCALAR_BATCH", "VECTOR_BATCH"})
+		ProximityMode proximityMode;
+
+		private List<User> users;
+
+		@Setup(Level.Invocation)
+		public void newUsers(TourGuideBenchmark benchmark) {
+			benchmark.rewardsService.setProximityMode(proximityMode);
+			users = new ArrayList<>(USERS);
+			for (int i = 0; i < USERS; i++) {
+				User newUser = new User(UUID.randomUUID(), "user" + i, "000", "user" + i + "@tourGuide.com");
+				for (Attraction attraction : benchmark.rewardsService.getAttractions()) {
+					newUser.addToVisitedLocations(new VisitedLocation(newUser.getUserId(), attraction, new Date()));
+				}
+				users.add(newUser);
+			}
+		}
+	}
+
+	/**
+	 * Empties the reward points cache before each call, so the points of the nearby attractions are looked up
+	 * instead of all being cache hits after the first call
+	 */
+	@State(Scope.Thread)
+	public static class ColdRewardPoints {
+		@Setup(Level.Invocation)
+		public void invalidate(TourGuideBenchmark benchmark) {
+			benchmark.rewardPointsCache.invalidateAll();
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		StubGpsUtil gpsUtil = new StubGpsUtil();
+		rewardsExecutor = Executors.newFixedThreadPool(RewardsService.FIXED_THREAD_POOLS_SIZE);
+		trackingExecutor = Executors.newFixedThreadPool(RewardsService.FIXED_THREAD_POOLS_SIZE);
+		rewardPointsCache = new RewardPointsCache();
+		rewardsService = new RewardsService(gpsUtil, new StubRewardCentral(), rewardPointsCache, rewardsExecutor);
+		InternalTestHelper.setInternalUserNumber(0);
+		tourGuideService = new TourGuideService(gpsUtil, rewardsService, new NearAttractionMapperImpl(), trackingExecutor);
+		tourGuideService.stopTracking();
+		user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		visitedLocation = gpsUtil.getUserLocation(user.getUserId());
+	}
+
+	@TearDown
+	public void tearDown() {
+		trackingExecutor.shutdown();
+		rewardsExecutor.shutdown();
+	}
+
+	@Benchmark
+	public NearAttractionResult getNearByAttractions(ColdRewardPoints coldRewardPoints) {
+		return tourGuideService.getNearByAttractions(visitedLocation, user);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void calculateRewardsFanOut(RewardedUsers rewardedUsers) {
+		List<CompletableFuture<Void>> futures = new ArrayList<>(USERS);
+		for (User rewardedUser : rewardedUsers.users) {
+			futures.add(rewardsService.calculateRewards(rewardedUser));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void calculateRewardsBatch(RewardedUsers rewardedUsers) {
+		rewardsService.calculateRewards(rewardedUsers.users).join();
+	}
+}
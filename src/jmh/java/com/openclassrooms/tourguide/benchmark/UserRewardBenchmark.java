@@ -0,0 +1,67 @@
+package com.openclassrooms.tourguide.benchmark;
+
+import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserReward;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewards added to the same user by concurrent threads, most of them for an already rewarded attraction
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class UserRewardBenchmark {
+	private static final int ATTRACTIONS = 1000;
+
+	private Attraction[] attractions;
+	private VisitedLocation visitedLocation;
+	private User user;
+
+	@Setup
+	public void setUp() {
+		attractions = new Attraction[ATTRACTIONS];
+		for (int i = 0; i < ATTRACTIONS; i++) {
+			attractions[i] = new Attraction("attraction" + i, "city", "state", i % 90, i % 180);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void newUser() {
+		user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		visitedLocation = new VisitedLocation(user.getUserId(), new Location(0, 0), new Date());
+	}
+
+	@Benchmark
+	public boolean addUserReward() {
+		Attraction attraction = attractions[ThreadLocalRandom.current().nextInt(ATTRACTIONS)];
+		return user.addUserReward(new UserReward(visitedLocation, attraction, 10));
+	}
+
+	@Benchmark
+	public boolean claimReward() {
+		return user.claimReward(attractions[ThreadLocalRandom.current().nextInt(ATTRACTIONS)].attractionName);
+	}
+}
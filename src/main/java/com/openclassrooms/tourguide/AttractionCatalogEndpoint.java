@@ -0,0 +1,35 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.service.AttractionCatalog;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.Map;
+
+/**
+ * /actuator/attractionCatalog: GET describes the current catalog snapshot, POST refreshes it from gpsUtil
+ */
+@Endpoint(id = "attractionCatalog")
+public class AttractionCatalogEndpoint {
+	private final AttractionCatalog attractionCatalog;
+
+	public AttractionCatalogEndpoint(AttractionCatalog attractionCatalog) {
+		this.attractionCatalog = attractionCatalog;
+	}
+
+	@ReadOperation
+	public Map<String, Object> catalog() {
+		return describe(attractionCatalog.getSnapshot());
+	}
+
+	@WriteOperation
+	public Map<String, Object> refresh() {
+		return describe(attractionCatalog.refresh());
+	}
+
+	private static Map<String, Object> describe(AttractionCatalog.Snapshot snapshot) {
+		return Map.of("version", snapshot.getVersion(), "attractions", snapshot.getAttractions().size(),
+				"loadedAt", snapshot.getLoadedAt());
+	}
+}
@@ -0,0 +1,38 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.model.RewardsRecomputeStatus;
+import com.openclassrooms.tourguide.service.RewardsRecomputeJob;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+/**
+ * /actuator/rewardsRecompute: GET reports the progress, POST starts a recompute of every reward and DELETE cancels it
+ */
+@Endpoint(id = "rewardsRecompute")
+public class RewardsRecomputeEndpoint {
+	private final RewardsRecomputeJob rewardsRecomputeJob;
+
+	public RewardsRecomputeEndpoint(RewardsRecomputeJob rewardsRecomputeJob) {
+		this.rewardsRecomputeJob = rewardsRecomputeJob;
+	}
+
+	@ReadOperation
+	public RewardsRecomputeStatus status() {
+		return rewardsRecomputeJob.getStatus();
+	}
+
+	// a job already running is left as is, its status is returned
+	@WriteOperation
+	public RewardsRecomputeStatus start() {
+		rewardsRecomputeJob.start();
+		return rewardsRecomputeJob.getStatus();
+	}
+
+	@DeleteOperation
+	public RewardsRecomputeStatus cancel() {
+		rewardsRecomputeJob.cancel();
+		return rewardsRecomputeJob.getStatus();
+	}
+}
@@ -1,51 +1,115 @@
 package com.openclassrooms.tourguide;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openclassrooms.tourguide.model.NearAttractionResult;
+import com.openclassrooms.tourguide.model.UserLocation;
 import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.spatial.BoundingBox;
 import com.openclassrooms.tourguide.user.User;
 import com.openclassrooms.tourguide.user.UserReward;
 import gpsUtil.location.VisitedLocation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import tripPricer.Provider;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class TourGuideController {
 
+    private static final long MAX_STALENESS_SECONDS = Long.MAX_VALUE / 1000;
+
 	@Autowired
 	TourGuideService tourGuideService;
+
+	@Autowired
+	ObjectMapper objectMapper;
 	
     @RequestMapping("/")
     public String index() {
         return "Greetings from TourGuide!";
     }
     
+    // the asynchronous endpoints release the request thread until their future completes
+    // maxStaleness is the maximum age in seconds of a last known location served without fetching a new one
     @RequestMapping("/getLocation") 
-    public VisitedLocation getLocation(@RequestParam String userName) {
-    	return tourGuideService.getUserLocation(getUser(userName));
+    public CompletableFuture<VisitedLocation> getLocation(@RequestParam String userName,
+            @RequestParam(required = false) Long maxStaleness) {
+    	return getUserLocation(getUser(userName), maxStaleness);
     }
 
     @RequestMapping("/getNearbyAttractions") 
-    public NearAttractionResult getNearbyAttractions(@RequestParam String userName) {
+    public CompletableFuture<NearAttractionResult> getNearbyAttractions(@RequestParam String userName,
+            @RequestParam(defaultValue = "" + TourGuideService.DEFAULT_NEARBY_ATTRACTIONS) int limit,
+            @RequestParam(required = false) Long maxStaleness) {
+        if (limit < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must not be negative");
+        }
+        // there are never more nearby attractions than attractions
+        int boundedLimit = Math.min(limit, tourGuideService.getAttractionCount());
         User user = getUser(userName);
-    	VisitedLocation visitedLocation = tourGuideService.getUserLocation(user);
-    	return tourGuideService.getNearByAttractions(visitedLocation, user);
+    	return getUserLocation(user, maxStaleness)
+    			.thenCompose(visitedLocation -> tourGuideService.getNearByAttractionsAsync(visitedLocation, user,
+    					boundedLimit));
     }
     
     @RequestMapping("/getRewards") 
-    public List<UserReward> getRewards(@RequestParam String userName) {
+    public Collection<UserReward> getRewards(@RequestParam String userName) {
     	return tourGuideService.getUserRewards(getUser(userName));
     }
        
     @RequestMapping("/getTripDeals")
-    public List<Provider> getTripDeals(@RequestParam String userName) {
-    	return tourGuideService.getTripDeals(getUser(userName));
+    public CompletableFuture<List<Provider>> getTripDeals(@RequestParam String userName) {
+    	return tourGuideService.getTripDealsAsync(getUser(userName));
     }
     
+    /**
+     * Streams the last known location of every user as newline-delimited JSON, without fetching new locations.
+     * The bounding box defaults to the whole world on its missing sides, updatedSince is an ISO-8601 date time.
+     */
+    @RequestMapping(value = "/getAllCurrentLocations", produces = "application/x-ndjson")
+    public StreamingResponseBody getAllCurrentLocations(@RequestParam(required = false) Double minLatitude,
+            @RequestParam(required = false) Double maxLatitude, @RequestParam(required = false) Double minLongitude,
+            @RequestParam(required = false) Double maxLongitude,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant updatedSince) {
+        BoundingBox boundingBox = null;
+        if (minLatitude != null || maxLatitude != null || minLongitude != null || maxLongitude != null) {
+            boundingBox = new BoundingBox(minLatitude != null ? minLatitude : -90, maxLatitude != null ? maxLatitude : 90,
+                    minLongitude != null ? minLongitude : -180, maxLongitude != null ? maxLongitude : 180);
+        }
+        BoundingBox filter = boundingBox;
+        return outputStream -> {
+            Iterator<UserLocation> locations = tourGuideService.getLastLocations(filter, updatedSince).iterator();
+            while (locations.hasNext()) {
+                outputStream.write(objectMapper.writeValueAsBytes(locations.next()));
+                outputStream.write('\n');
+            }
+        };
+    }
+
+    private CompletableFuture<VisitedLocation> getUserLocation(User user, Long maxStaleness) {
+        if (maxStaleness == null) {
+            return tourGuideService.getUserLocationAsync(user);
+        }
+        if (maxStaleness < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "maxStaleness must not be negative");
+        }
+        // larger values overflow once converted to milliseconds, and already accept a location of any age
+        long boundedMaxStaleness = Math.min(maxStaleness, MAX_STALENESS_SECONDS);
+        return tourGuideService.getUserLocationAsync(user, Duration.ofSeconds(boundedMaxStaleness));
+    }
+
     private User getUser(String userName) {
     	return tourGuideService.getUser(userName);
     }
@@ -1,12 +1,43 @@
 package com.openclassrooms.tourguide;
 
+import com.openclassrooms.tourguide.concurrent.TaskExecutorMetrics;
+import com.openclassrooms.tourguide.concurrent.TaskExecutors;
+import com.openclassrooms.tourguide.config.TourGuideProperties;
+import com.openclassrooms.tourguide.persistence.MappedUserStateJournal;
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
+import com.openclassrooms.tourguide.service.AttractionCatalog;
+import com.openclassrooms.tourguide.service.RewardPointsCache;
+import com.openclassrooms.tourguide.service.RewardsRecomputeJob;
 import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.service.TripDealsCache;
+import com.openclassrooms.tourguide.sharding.ClusterMembership;
+import com.openclassrooms.tourguide.sharding.ConsistentHashUserPartition;
+import com.openclassrooms.tourguide.sharding.FileClusterMembership;
+import com.openclassrooms.tourguide.sharding.InMemoryClusterMembership;
+import com.openclassrooms.tourguide.sharding.UserPartition;
+import com.openclassrooms.tourguide.user.InMemoryUserRepository;
+import com.openclassrooms.tourguide.user.UserRepository;
 import gpsUtil.GpsUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import rewardCentral.RewardCentral;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
 @Configuration
+@EnableConfigurationProperties(TourGuideProperties.class)
 public class TourGuideModule {
 	
 	@Bean
@@ -14,14 +45,131 @@ public class TourGuideModule {
 		return new GpsUtil();
 	}
 	
+	@Bean(destroyMethod = "stopRefreshing")
+	public AttractionCatalog getAttractionCatalog(TourGuideProperties properties) {
+		AttractionCatalog attractionCatalog = new AttractionCatalog(getGpsUtil());
+		Duration refreshInterval = properties.getAttractions().getRefreshInterval();
+		if (refreshInterval != null && !refreshInterval.isZero()) {
+			attractionCatalog.startRefreshing(refreshInterval);
+		}
+		return attractionCatalog;
+	}
+
+	@Bean
+	public AttractionCatalogEndpoint getAttractionCatalogEndpoint(AttractionCatalog attractionCatalog) {
+		return new AttractionCatalogEndpoint(attractionCatalog);
+	}
+
 	@Bean
-	public RewardsService getRewardsService() {
-		return new RewardsService(getGpsUtil(), getRewardCentral());
+	public RewardsService getRewardsService(AttractionCatalog attractionCatalog, RewardPointsCache rewardPointsCache,
+			@Qualifier("rewardsExecutor") ExecutorService rewardsExecutor, UserStateJournal userStateJournal,
+			TourGuideProperties properties) {
+		RewardsService rewardsService = new RewardsService(attractionCatalog, getRewardCentral(), rewardPointsCache,
+				rewardsExecutor);
+		rewardsService.setUserStateJournal(userStateJournal);
+		rewardsService.setDistanceStrategy(properties.getRewards().getDistanceStrategy());
+		rewardsService.setProximityMode(properties.getRewards().getProximityMode());
+		return rewardsService;
 	}
 	
+	@Bean
+	public RewardsRecomputeJob getRewardsRecomputeJob(RewardsService rewardsService, TourGuideService tourGuideService,
+			@Qualifier("rewardsExecutor") ExecutorService rewardsExecutor, TourGuideProperties properties) {
+		TourGuideProperties.Recompute recompute = properties.getRewards().getRecompute();
+		return new RewardsRecomputeJob(rewardsService, () -> new ArrayList<>(tourGuideService.getLocalUsers()),
+				rewardsExecutor, recompute.getUsersPerTask(), recompute.getLookupBatchSize(),
+				recompute.getMaxInFlightLookupBatches());
+	}
+
+	@Bean
+	public RewardsRecomputeEndpoint getRewardsRecomputeEndpoint(RewardsRecomputeJob rewardsRecomputeJob) {
+		return new RewardsRecomputeEndpoint(rewardsRecomputeJob);
+	}
+
 	@Bean
 	public RewardCentral getRewardCentral() {
 		return new RewardCentral();
 	}
-	
+
+	@Bean
+	public RewardPointsCache getRewardPointsCache(TourGuideProperties properties, MeterRegistry meterRegistry) {
+		TourGuideProperties.PointsCache cacheProperties = properties.getRewards().getPointsCache();
+		RewardPointsCache rewardPointsCache = new RewardPointsCache(cacheProperties.getMaximumSize(),
+				cacheProperties.getExpireAfterWrite());
+		CaffeineCacheMetrics.monitor(meterRegistry, rewardPointsCache.getCache(), "rewardPoints");
+		return rewardPointsCache;
+	}
+
+	@Bean
+	public TripDealsCache getTripDealsCache(TourGuideProperties properties, MeterRegistry meterRegistry) {
+		TourGuideProperties.TripDeals tripDeals = properties.getTripDeals();
+		TripDealsCache tripDealsCache = new TripDealsCache(tripDeals.getMaximumSize(), tripDeals.getExpireAfterWrite());
+		CaffeineCacheMetrics.monitor(meterRegistry, tripDealsCache.getCache(), "tripDeals");
+		Gauge.builder("cache.hit.ratio", tripDealsCache, TripDealsCache::getHitRatio)
+				.tag("cache", "tripDeals")
+				.register(meterRegistry);
+		return tripDealsCache;
+	}
+
+	@Bean
+	public UserPartition getUserPartition(TourGuideProperties properties) {
+		TourGuideProperties.Sharding sharding = properties.getSharding();
+		if (!sharding.isEnabled()) {
+			return UserPartition.ALL;
+		}
+		ClusterMembership membership = sharding.getMembersFile() != null
+				? new FileClusterMembership(sharding.getNodeId(), Path.of(sharding.getMembersFile()))
+				: new InMemoryClusterMembership(sharding.getNodeId());
+		return new ConsistentHashUserPartition(membership, sharding.getVirtualNodes());
+	}
+
+	@Bean
+	public UserRepository getUserRepository() {
+		return new InMemoryUserRepository();
+	}
+
+	@Bean
+	public UserStateJournal getUserStateJournal(TourGuideProperties properties) {
+		TourGuideProperties.Persistence persistence = properties.getPersistence();
+		if (!persistence.isEnabled()) {
+			return UserStateJournal.NOOP;
+		}
+		return new MappedUserStateJournal(Path.of(persistence.getDirectory()), persistence.getSegmentSizeBytes(),
+				persistence.getCompactionThreshold());
+	}
+
+	// the executors are shut down with the application context, after the services using them
+	@Bean(name = "trackingExecutor", destroyMethod = "shutdown")
+	public ExecutorService getTrackingExecutor(TourGuideProperties properties, MeterRegistry meterRegistry) {
+		return createExecutor("tracking", properties.getTracking().getExecutor(), meterRegistry);
+	}
+
+	@Bean(name = "rewardsExecutor", destroyMethod = "shutdown")
+	public ExecutorService getRewardsExecutor(TourGuideProperties properties, MeterRegistry meterRegistry) {
+		return createExecutor("rewards", properties.getRewards().getExecutor(), meterRegistry);
+	}
+
+	// defining executors makes Spring Boot skip its applicationTaskExecutor, the MVC async requests get their own
+	@Bean(name = "webExecutor", destroyMethod = "shutdown")
+	public ExecutorService getWebExecutor(TourGuideProperties properties, MeterRegistry meterRegistry) {
+		return createExecutor("web", properties.getWeb().getExecutor(), meterRegistry);
+	}
+
+	@Bean
+	public WebMvcConfigurer getAsyncSupportConfigurer(@Qualifier("webExecutor") ExecutorService webExecutor) {
+		return new WebMvcConfigurer() {
+			@Override
+			public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+				configurer.setTaskExecutor(new TaskExecutorAdapter(webExecutor));
+			}
+		};
+	}
+
+	private ExecutorService createExecutor(String name, TourGuideProperties.ExecutorSettings settings,
+			MeterRegistry meterRegistry) {
+		ExecutorService executorService = TaskExecutors.create(name, settings.getMode(), settings.getPoolSize(),
+				settings.getQueueCapacity(), settings.getRejectionPolicy(), settings.getMaxConcurrency());
+		return TaskExecutorMetrics.monitor(meterRegistry, executorService, name);
+	}
+
 }
@@ -0,0 +1,77 @@
+package com.openclassrooms.tourguide.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor limiting the number of tasks running at the same time on the delegate.
+ * Tasks wait for a permit on their own thread, which is cheap with virtual threads,
+ * so the callers are never blocked.
+ */
+public class ConcurrencyLimitedExecutorService extends AbstractExecutorService {
+	private final ExecutorService delegate;
+	private final Semaphore permits;
+	private final int maxConcurrency;
+
+	public ConcurrencyLimitedExecutorService(ExecutorService delegate, int maxConcurrency) {
+		this.delegate = delegate;
+		this.permits = new Semaphore(maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		delegate.execute(() -> {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				command.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	public int getActiveCount() {
+		return maxConcurrency - permits.availablePermits();
+	}
+
+	/**
+	 * @return an estimate of the number of tasks waiting for a permit
+	 */
+	public int getQueueLength() {
+		return permits.getQueueLength();
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+}
@@ -0,0 +1,27 @@
+package com.openclassrooms.tourguide.concurrent;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the rejected tasks before applying the rejection policy
+ */
+public class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+	private final RejectedExecutionHandler delegate;
+	private final LongAdder rejectedCount = new LongAdder();
+
+	public CountingRejectedExecutionHandler(RejectedExecutionHandler delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+		rejectedCount.increment();
+		delegate.rejectedExecution(task, executor);
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+}
@@ -0,0 +1,13 @@
+package com.openclassrooms.tourguide.concurrent;
+
+public enum ExecutionMode {
+	/**
+	 * Fixed pool of platform threads
+	 */
+	FIXED_POOL,
+	/**
+	 * One virtual thread per task, the number of tasks running at once being limited by a semaphore.
+	 * Requires a Java 21+ runtime, the fixed pool is used otherwise.
+	 */
+	VIRTUAL_THREADS
+}
@@ -0,0 +1,27 @@
+package com.openclassrooms.tourguide.concurrent;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * What to do with a task submitted while the queue of a fixed pool is full
+ */
+public enum RejectionPolicy {
+	/**
+	 * The submitting thread runs the task itself, which slows down the producer
+	 */
+	CALLER_RUNS,
+	/**
+	 * The submission fails with a RejectedExecutionException
+	 */
+	ABORT;
+
+	RejectedExecutionHandler toHandler() {
+		switch (this) {
+		case ABORT:
+			return new ThreadPoolExecutor.AbortPolicy();
+		default:
+			return new ThreadPoolExecutor.CallerRunsPolicy();
+		}
+	}
+}
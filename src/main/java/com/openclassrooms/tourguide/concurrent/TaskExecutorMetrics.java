@@ -0,0 +1,43 @@
+package com.openclassrooms.tourguide.concurrent;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Publishes the saturation of the task executors: active threads, queue depth, task latency and rejections
+ */
+public final class TaskExecutorMetrics {
+
+	private TaskExecutorMetrics() {
+	}
+
+	/**
+	 * Registers the executor meters tagged with the executor name
+	 * @return the executor to use so that the task execution and queue wait times are recorded
+	 */
+	public static ExecutorService monitor(MeterRegistry meterRegistry, ExecutorService executorService, String name) {
+		if (executorService instanceof ThreadPoolExecutor threadPool
+				&& threadPool.getRejectedExecutionHandler() instanceof CountingRejectedExecutionHandler rejections) {
+			FunctionCounter.builder("executor.rejected", rejections, CountingRejectedExecutionHandler::getRejectedCount)
+					.tag("name", name)
+					.description("Tasks rejected because the executor queue was full")
+					.register(meterRegistry);
+		}
+		if (executorService instanceof ConcurrencyLimitedExecutorService limited) {
+			Gauge.builder("executor.active", limited, ConcurrencyLimitedExecutorService::getActiveCount)
+					.tag("name", name)
+					.description("Tasks currently running")
+					.register(meterRegistry);
+			Gauge.builder("executor.queued", limited, ConcurrencyLimitedExecutorService::getQueueLength)
+					.tag("name", name)
+					.description("Tasks waiting for a concurrency permit")
+					.register(meterRegistry);
+		}
+		return ExecutorServiceMetrics.monitor(meterRegistry, executorService, name);
+	}
+}
@@ -0,0 +1,78 @@
+package com.openclassrooms.tourguide.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used to call the blocking gpsUtil, RewardCentral and TripPricer libraries
+ */
+public final class TaskExecutors {
+	private static final Logger logger = LoggerFactory.getLogger(TaskExecutors.class);
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+	private TaskExecutors() {
+	}
+
+	public static ExecutorService create(ExecutionMode mode, int poolSize, int maxConcurrency) {
+		return create("task", mode, poolSize, Integer.MAX_VALUE, RejectionPolicy.CALLER_RUNS, maxConcurrency);
+	}
+
+	/**
+	 * Fixed pool for the services created without an executor: its idle threads stop,
+	 * so a pool nobody shuts down does not keep its threads alive
+	 */
+	public static ExecutorService createFixedPool(int poolSize) {
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize, poolSize, IDLE_THREAD_TIMEOUT_SECONDS,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		threadPool.allowCoreThreadTimeOut(true);
+		return threadPool;
+	}
+
+	/**
+	 * @param queueCapacity bound of the fixed pool queue, tasks submitted beyond it are handled by the rejection policy
+	 * @param maxConcurrency maximum number of tasks running at once in virtual threads mode
+	 */
+	public static ExecutorService create(String name, ExecutionMode mode, int poolSize, int queueCapacity,
+			RejectionPolicy rejectionPolicy, int maxConcurrency) {
+		if (mode == ExecutionMode.VIRTUAL_THREADS) {
+			ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+			if (virtualThreads != null) {
+				return new ConcurrencyLimitedExecutorService(virtualThreads, maxConcurrency);
+			}
+			logger.warn("Virtual threads are not available on Java " + Runtime.version().feature()
+					+ ", using a fixed pool of " + poolSize + " threads for " + name);
+		}
+		return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(queueCapacity), namedThreadFactory(name),
+				new CountingRejectedExecutionHandler(rejectionPolicy.toHandler()));
+	}
+
+	private static ThreadFactory namedThreadFactory(String name) {
+		ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		AtomicInteger threadNumber = new AtomicInteger();
+		return runnable -> {
+			Thread thread = defaultFactory.newThread(runnable);
+			thread.setName(name + "-" + threadNumber.incrementAndGet());
+			return thread;
+		};
+	}
+
+	// looked up by reflection since the application is compiled for Java 17
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.openclassrooms.tourguide.config;
+
+import com.openclassrooms.tourguide.concurrent.ExecutionMode;
+import com.openclassrooms.tourguide.concurrent.RejectionPolicy;
+import com.openclassrooms.tourguide.spatial.DistanceStrategy;
+import com.openclassrooms.tourguide.spatial.ProximityMode;
+import com.openclassrooms.tourguide.tracker.TrackingSchedule;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "tourguide")
+public class TourGuideProperties {
+
+    private Rewards rewards = new Rewards();
+    private Tracking tracking = new Tracking();
+    private Sharding sharding = new Sharding();
+    private Persistence persistence = new Persistence();
+    private History history = new History();
+    private TripDeals tripDeals = new TripDeals();
+    private UserLocation location = new UserLocation();
+    private Attractions attractions = new Attractions();
+    private Web web = new Web();
+
+    @Getter
+    @Setter
+    public static class Rewards {
+
+        private PointsCache pointsCache = new PointsCache();
+        private ExecutorSettings executor = new ExecutorSettings();
+        private DistanceStrategy distanceStrategy = DistanceStrategy.UNIT_VECTOR;
+        private ProximityMode proximityMode = ProximityMode.INDEX;
+        private Recompute recompute = new Recompute();
+    }
+
+    @Getter
+    @Setter
+    public static class Recompute {
+
+        // users scanned by a fork-join task of the bulk recompute, bigger sets are split
+        private int usersPerTask = 256;
+        // claimed rewards looked up in RewardCentral by one task of the rewards executor
+        private int lookupBatchSize = 16;
+        // lookup batches submitted to the rewards executor and not completed yet, the scan waits beyond it
+        private int maxInFlightLookupBatches = 64;
+    }
+
+    @Getter
+    @Setter
+    public static class Attractions {
+
+        // the attraction catalog is fetched again from gpsUtil every interval, 0 to only refresh it on demand
+        private Duration refreshInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Tracking {
+
+        private ExecutorSettings executor = new ExecutorSettings();
+        // users whose location is fetched by the same worker
+        private int batchSize = 100;
+        // batches submitted and not completed yet, submitting more blocks the tracker
+        private int maxInFlightBatches = 300;
+        private TrackingSchedule schedule = TrackingSchedule.FIXED_DELAY;
+        private Duration initialDelay = Duration.ZERO;
+        private Duration pollingInterval = Duration.ofMinutes(5);
+        // users not tracked within this duration are shed until the next cycle
+        private Duration maxCycleDuration = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Sharding {
+
+        // when disabled this node tracks every user; when enabled the nodes must share the user repository
+        private boolean enabled = false;
+        private String nodeId = "local";
+        // file listing the node ids of the cluster, one per line; without it the node is alone
+        private String membersFile;
+        // points of each node on the consistent hash ring
+        private int virtualNodes = 128;
+    }
+
+    @Getter
+    @Setter
+    public static class UserLocation {
+
+        // the last known location of a user is served while it is newer than this, then it is fetched again
+        private Duration maxAge = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class TripDeals {
+
+        // cached TripPricer quotes, at most one per user
+        private long maximumSize = 100_000;
+        private Duration expireAfterWrite = Duration.ofMinutes(10);
+    }
+
+    @Getter
+    @Setter
+    public static class History {
+
+        // visited locations kept per user, the oldest ones are evicted first
+        private int maxLocations = 1000;
+        // locations older than this compared to the latest one are evicted
+        private Duration maxAge = Duration.ofDays(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Persistence {
+
+        // when disabled the visited locations and rewards only live in memory
+        private boolean enabled = false;
+        private String directory = "data/journal";
+        private int segmentSizeBytes = 64 * 1024 * 1024;
+        // segments appended since the last compaction before the journal is compacted
+        private int compactionThreshold = 16;
+    }
+
+    @Getter
+    @Setter
+    public static class Web {
+
+        // runs the asynchronous Spring MVC requests, such as the streamed responses
+        private ExecutorSettings executor = new ExecutorSettings();
+    }
+
+    @Getter
+    @Setter
+    public static class ExecutorSettings {
+
+        private ExecutionMode mode = ExecutionMode.FIXED_POOL;
+        // number of platform threads of the fixed pool
+        private int poolSize = 300;
+        // bound of the fixed pool queue, extra tasks are handled by the rejection policy
+        private int queueCapacity = 10_000;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+        // maximum number of tasks running at once in virtual threads mode
+        private int maxConcurrency = 300;
+    }
+
+    @Getter
+    @Setter
+    public static class PointsCache {
+
+        private long maximumSize = 100_000;
+        private Duration expireAfterWrite = Duration.ofMinutes(30);
+    }
+}
@@ -0,0 +1,26 @@
+package com.openclassrooms.tourguide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+@Getter
+@AllArgsConstructor
+public class RewardsRecomputeStatus {
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    private State state;
+    private int totalUsers;
+    private long scannedUsers;
+    // rewards claimed by the scan, and how many of them got their points and were added
+    private long claimedRewards;
+    private long addedRewards;
+    private long failedRewards;
+    private Instant startedAt;
+    private Instant finishedAt;
+
+}
@@ -0,0 +1,20 @@
+package com.openclassrooms.tourguide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+import java.util.UUID;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class UserLocation {
+
+    private UUID userId;
+    private double latitude;
+    private double longitude;
+    private Date timeVisited;
+
+}
@@ -0,0 +1,407 @@
+package com.openclassrooms.tourguide.persistence;
+
+import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserRepository;
+import com.openclassrooms.tourguide.user.UserReward;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal written in memory-mapped segment files of a fixed size.
+ * A record is its length, the CRC32C checksum of its payload, then the payload: a type byte and compact binary
+ * fields. A zero length ends the records of a segment; a record whose checksum does not match was torn by a crash
+ * and ends the replay. Appending only copies bytes in the mapped buffer, the operating system writes the pages to
+ * the file. On opening, the last segment is reused from the end of its valid records.
+ * <p>
+ * Records are matched to the users by user name. The users added at runtime are journaled too, so the replay
+ * recreates them with their id when the repository does not hold them.
+ * <p>
+ * A compaction writes the current user state in new segments, then commits them by writing a checkpoint
+ * file holding their index range, and only then deletes the older segments. A compaction interrupted
+ * before the checkpoint is discarded when the journal is opened.
+ */
+public class MappedUserStateJournal implements UserStateJournal, Closeable {
+	private static final byte VISITED_LOCATION = 1;
+	private static final byte USER_REWARD = 2;
+	private static final byte USER = 3;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String COMPACTING_SUFFIX = ".compacting";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	// latitude, longitude and time of a visited location
+	private static final int LOCATION_SIZE = 3 * Long.BYTES;
+	// length and checksum of a record
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	private final Logger logger = LoggerFactory.getLogger(MappedUserStateJournal.class);
+	private final Path directory;
+	private final int segmentSize;
+	// segments written since the last compaction before it is needed
+	private final int compactionThreshold;
+	private volatile int firstSegmentIndex;
+	private volatile int segmentIndex;
+	private MappedByteBuffer segment;
+
+	public MappedUserStateJournal(Path directory, int segmentSize, int compactionThreshold) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.compactionThreshold = compactionThreshold;
+		try {
+			Files.createDirectories(directory);
+			recoverCompaction();
+			List<Integer> segments = segmentIndexes(SEGMENT_SUFFIX);
+			firstSegmentIndex = segments.isEmpty() ? 1 : segments.get(0);
+			int lastSegmentIndex = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+			if (lastSegmentIndex > 0 && Files.size(segmentPath(lastSegmentIndex, SEGMENT_SUFFIX)) == segmentSize) {
+				reopenSegment(lastSegmentIndex);
+			} else {
+				openSegment(lastSegmentIndex + 1, SEGMENT_SUFFIX);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open the user state journal in " + directory, e);
+		}
+	}
+
+	@Override
+	public void appendUser(User user) {
+		byte[] userName = encode(user.getUserName());
+		byte[] phoneNumber = encode(user.getPhoneNumber());
+		byte[] emailAddress = encode(user.getEmailAddress());
+		int size = 1 + 3 * Short.BYTES + userName.length + phoneNumber.length + emailAddress.length + 2 * Long.BYTES;
+		synchronized (this) {
+			ByteBuffer out = reserve(size);
+			int start = out.position();
+			out.put(USER);
+			putString(out, userName);
+			out.putLong(user.getUserId().getMostSignificantBits());
+			out.putLong(user.getUserId().getLeastSignificantBits());
+			putString(out, phoneNumber);
+			putString(out, emailAddress);
+			seal(out, start);
+		}
+	}
+
+	@Override
+	public void appendVisitedLocation(User user, VisitedLocation visitedLocation) {
+		byte[] userName = encode(user.getUserName());
+		synchronized (this) {
+			ByteBuffer out = reserve(1 + Short.BYTES + userName.length + LOCATION_SIZE);
+			int start = out.position();
+			out.put(VISITED_LOCATION);
+			putString(out, userName);
+			putLocation(out, visitedLocation);
+			seal(out, start);
+		}
+	}
+
+	@Override
+	public void appendUserReward(User user, UserReward userReward) {
+		byte[] userName = encode(user.getUserName());
+		Attraction attraction = userReward.attraction;
+		byte[] attractionName = encode(attraction.attractionName);
+		byte[] city = encode(attraction.city);
+		byte[] state = encode(attraction.state);
+		int size = 1 + 4 * Short.BYTES + userName.length + attractionName.length + city.length + state.length
+				+ LOCATION_SIZE + 2 * Double.BYTES + Integer.BYTES;
+		synchronized (this) {
+			ByteBuffer out = reserve(size);
+			int start = out.position();
+			out.put(USER_REWARD);
+			putString(out, userName);
+			putLocation(out, userReward.visitedLocation);
+			putString(out, attractionName);
+			putString(out, city);
+			putString(out, state);
+			out.putDouble(attraction.latitude);
+			out.putDouble(attraction.longitude);
+			out.putInt(userReward.getRewardPoints());
+			seal(out, start);
+		}
+	}
+
+	@Override
+	public synchronized void replay(UserRepository userRepository, UserFactory userFactory) {
+		long records = 0;
+		long unknownUserRecords = 0;
+		try {
+			for (int index : segmentIndexes(SEGMENT_SUFFIX)) {
+				// the records of the current segment end where the appending goes on
+				ByteBuffer in = index == segmentIndex ? segment.duplicate().flip()
+						: readSegment(segmentPath(index, SEGMENT_SUFFIX));
+				ByteBuffer record;
+				while ((record = nextRecord(in)) != null) {
+					records++;
+					if (!replayRecord(record, userRepository, userFactory)) {
+						unknownUserRecords++;
+					}
+				}
+				if (isTorn(in)) {
+					logger.warn("Stopped replaying the user state journal at a torn record in segment " + index);
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not replay the user state journal", e);
+		}
+		logger.info("Replayed " + records + " journal records, " + unknownUserRecords + " of unknown users");
+	}
+
+	@Override
+	public synchronized void compact(Collection<User> users) {
+		try {
+			List<Integer> oldSegments = segmentIndexes(SEGMENT_SUFFIX);
+			segment.force();
+			int first = segmentIndex + 1;
+			openSegment(first, COMPACTING_SUFFIX);
+			for (User user : users) {
+				appendUser(user);
+				for (VisitedLocation visitedLocation : user.getVisitedLocations()) {
+					appendVisitedLocation(user, visitedLocation);
+				}
+				for (UserReward userReward : user.getUserRewards()) {
+					appendUserReward(user, userReward);
+				}
+			}
+			segment.force();
+			int last = segmentIndex;
+
+			Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+			Path temporaryCheckpoint = directory.resolve(CHECKPOINT_FILE + ".tmp");
+			Files.writeString(temporaryCheckpoint, first + " " + last);
+			Files.move(temporaryCheckpoint, checkpoint, StandardCopyOption.ATOMIC_MOVE);
+
+			for (int index = first; index <= last; index++) {
+				Files.move(segmentPath(index, COMPACTING_SUFFIX), segmentPath(index, SEGMENT_SUFFIX));
+			}
+			for (int index : oldSegments) {
+				Files.deleteIfExists(segmentPath(index, SEGMENT_SUFFIX));
+			}
+			openSegment(last + 1, SEGMENT_SUFFIX);
+			firstSegmentIndex = first;
+			logger.info("Compacted the user state journal of " + users.size() + " users into "
+					+ (last - first + 1) + " segments");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not compact the user state journal", e);
+		}
+	}
+
+	@Override
+	public boolean needsCompaction() {
+		return segmentIndex - firstSegmentIndex >= compactionThreshold;
+	}
+
+	@Override
+	public synchronized void close() {
+		segment.force();
+	}
+
+	private boolean replayRecord(ByteBuffer record, UserRepository userRepository, UserFactory userFactory) {
+		byte type = record.get();
+		String userName = getString(record);
+		User user = userRepository.findByUserName(userName);
+		if (type == USER) {
+			if (user == null) {
+				UUID userId = new UUID(record.getLong(), record.getLong());
+				userRepository.putIfAbsent(userFactory.create(userId, userName, getString(record), getString(record)));
+			}
+			return true;
+		}
+		if (user == null) {
+			return false;
+		}
+		VisitedLocation visitedLocation = getLocation(record, user);
+		if (type == VISITED_LOCATION) {
+			user.addToVisitedLocations(visitedLocation);
+		} else if (type == USER_REWARD) {
+			String attractionName = getString(record);
+			String city = getString(record);
+			String state = getString(record);
+			Attraction attraction = new Attraction(attractionName, city, state, record.getDouble(), record.getDouble());
+			user.addUserReward(new UserReward(visitedLocation, attraction, record.getInt()));
+		}
+		return true;
+	}
+
+	// must be called holding the lock, rolls to the next segment when the record does not fit
+	private ByteBuffer reserve(int size) {
+		if (HEADER_SIZE + size > segmentSize) {
+			throw new IllegalArgumentException("Record of " + size + " bytes larger than the journal segments");
+		}
+		if (segment.remaining() < HEADER_SIZE + size) {
+			try {
+				segment.force();
+				boolean compacting = Files.exists(segmentPath(segmentIndex, COMPACTING_SUFFIX));
+				openSegment(segmentIndex + 1, compacting ? COMPACTING_SUFFIX : SEGMENT_SUFFIX);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not open a new journal segment", e);
+			}
+		}
+		segment.putInt(size);
+		// the checksum is written once the payload is
+		segment.putInt(0);
+		return segment;
+	}
+
+	/**
+	 * Writes the checksum of the payload starting at the given position, up to the position of the buffer
+	 */
+	private static void seal(ByteBuffer out, int start) {
+		CRC32C checksum = new CRC32C();
+		checksum.update(out.slice(start, out.position() - start));
+		out.putInt(start - Integer.BYTES, (int) checksum.getValue());
+	}
+
+	/**
+	 * @return the payload of the record at the position of the buffer, moving past it, or null at the end of the
+	 *         records of the segment or at a torn record
+	 */
+	private static ByteBuffer nextRecord(ByteBuffer in) {
+		if (in.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		int start = in.position();
+		int length = in.getInt(start);
+		if (length <= 0 || length > in.remaining() - HEADER_SIZE) {
+			return null;
+		}
+		ByteBuffer payload = in.slice(start + HEADER_SIZE, length);
+		CRC32C checksum = new CRC32C();
+		checksum.update(payload.duplicate());
+		if ((int) checksum.getValue() != in.getInt(start + Integer.BYTES)) {
+			return null;
+		}
+		in.position(start + HEADER_SIZE + length);
+		return payload;
+	}
+
+	// whether the records stopped before the end marker of the segment
+	private static boolean isTorn(ByteBuffer in) {
+		return in.remaining() >= Integer.BYTES && in.getInt(in.position()) != 0;
+	}
+
+	private void openSegment(int index, String suffix) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(index, suffix), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid once the channel is closed
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segmentIndex = index;
+	}
+
+	/**
+	 * Maps the segment again and appends after its valid records, clearing what a torn record left so the
+	 * records appended from there are not followed by stale bytes
+	 */
+	private void reopenSegment(int index) throws IOException {
+		openSegment(index, SEGMENT_SUFFIX);
+		while (nextRecord(segment) != null) {
+			// skips the valid records
+		}
+		if (isTorn(segment)) {
+			int end = segment.position();
+			byte[] zeros = new byte[Math.min(segment.remaining(), 64 * 1024)];
+			while (segment.hasRemaining()) {
+				segment.put(zeros, 0, Math.min(zeros.length, segment.remaining()));
+			}
+			segment.position(end);
+			logger.warn("Dropped a torn record at the end of the user state journal segment " + index);
+		}
+	}
+
+	private ByteBuffer readSegment(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Keeps the segments of a committed compaction and drops the rest of an interrupted one
+	 */
+	private void recoverCompaction() throws IOException {
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+		int first = -1;
+		int last = -1;
+		if (Files.exists(checkpoint)) {
+			String[] range = Files.readString(checkpoint).trim().split(" ");
+			first = Integer.parseInt(range[0]);
+			last = Integer.parseInt(range[1]);
+		}
+		for (int index : segmentIndexes(COMPACTING_SUFFIX)) {
+			if (index >= first && index <= last) {
+				Files.move(segmentPath(index, COMPACTING_SUFFIX), segmentPath(index, SEGMENT_SUFFIX),
+						StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.delete(segmentPath(index, COMPACTING_SUFFIX));
+			}
+		}
+		for (int index : segmentIndexes(SEGMENT_SUFFIX)) {
+			if (index < first) {
+				Files.delete(segmentPath(index, SEGMENT_SUFFIX));
+			}
+		}
+	}
+
+	private List<Integer> segmentIndexes(String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(path -> path.getFileName().toString())
+					.filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix))
+					.map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length())))
+					.sorted()
+					.collect(Collectors.toCollection(ArrayList::new));
+		}
+	}
+
+	private Path segmentPath(int index, String suffix) {
+		return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, suffix));
+	}
+
+	private static byte[] encode(String value) {
+		return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void putString(ByteBuffer out, byte[] value) {
+		out.putShort((short) value.length);
+		out.put(value);
+	}
+
+	private static String getString(ByteBuffer in) {
+		byte[] value = new byte[in.getShort() & 0xFFFF];
+		in.get(value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	private static void putLocation(ByteBuffer out, VisitedLocation visitedLocation) {
+		out.putDouble(visitedLocation.location.latitude);
+		out.putDouble(visitedLocation.location.longitude);
+		out.putLong(visitedLocation.timeVisited.getTime());
+	}
+
+	private static VisitedLocation getLocation(ByteBuffer in, User user) {
+		double latitude = in.getDouble();
+		double longitude = in.getDouble();
+		return new VisitedLocation(user.getUserId(), new Location(latitude, longitude), new Date(in.getLong()));
+	}
+}
@@ -0,0 +1,69 @@
+package com.openclassrooms.tourguide.persistence;
+
+import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserRepository;
+import com.openclassrooms.tourguide.user.UserReward;
+import gpsUtil.location.VisitedLocation;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Records the visited locations and rewards of the users so they survive a restart
+ */
+public interface UserStateJournal {
+
+	/**
+	 * Journal keeping nothing, the user state only lives in memory
+	 */
+	UserStateJournal NOOP = new UserStateJournal() {
+		@Override
+		public void appendUser(User user) {
+		}
+
+		@Override
+		public void appendVisitedLocation(User user, VisitedLocation visitedLocation) {
+		}
+
+		@Override
+		public void appendUserReward(User user, UserReward userReward) {
+		}
+
+		@Override
+		public void replay(UserRepository userRepository, UserFactory userFactory) {
+		}
+
+		@Override
+		public void compact(Collection<User> users) {
+		}
+	};
+
+	/**
+	 * Records a user added at runtime, so the replay can recreate it
+	 */
+	void appendUser(User user);
+
+	void appendVisitedLocation(User user, VisitedLocation visitedLocation);
+
+	void appendUserReward(User user, UserReward userReward);
+
+	/**
+	 * Adds the recorded locations and rewards to the users of the repository, matched by user name; the recorded
+	 * users missing from the repository are created first
+	 */
+	void replay(UserRepository userRepository, UserFactory userFactory);
+
+	/**
+	 * Replaces the recorded history by the current state of the users
+	 */
+	void compact(Collection<User> users);
+
+	default boolean needsCompaction() {
+		return false;
+	}
+
+	@FunctionalInterface
+	interface UserFactory {
+		User create(UUID userId, String userName, String phoneNumber, String emailAddress);
+	}
+}
@@ -0,0 +1,158 @@
+package com.openclassrooms.tourguide.service;
+
+import com.openclassrooms.tourguide.spatial.AttractionIndex;
+import com.openclassrooms.tourguide.spatial.DistanceStrategy;
+import gpsUtil.GpsUtil;
+import gpsUtil.location.Attraction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Attractions of gpsUtil shared by the services, published as immutable versioned snapshots.
+ * The catalog is fetched on first use, then again on {@link #refresh()} or on the refresh schedule;
+ * a fetch returning the same attractions keeps the current snapshot, so its version only changes with the attractions.
+ */
+public class AttractionCatalog {
+	private final Logger logger = LoggerFactory.getLogger(AttractionCatalog.class);
+	private final GpsUtil gpsUtil;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+	private volatile ScheduledExecutorService scheduler;
+
+	public AttractionCatalog(GpsUtil gpsUtil) {
+		this.gpsUtil = gpsUtil;
+	}
+
+	public Snapshot getSnapshot() {
+		Snapshot current = snapshot.get();
+		if (current == null) {
+			current = refresh();
+		}
+		return current;
+	}
+
+	/**
+	 * Fetches the attractions from gpsUtil and publishes a new snapshot if they changed
+	 * @return the snapshot published after the fetch
+	 */
+	public synchronized Snapshot refresh() {
+		List<Attraction> attractions = gpsUtil.getAttractions();
+		Snapshot current = snapshot.get();
+		// gpsUtil gives new ids to the attractions on each call, they are compared on their name and location
+		if (current != null && sameAttractions(current.getAttractions(), attractions)) {
+			return current;
+		}
+		Snapshot next = new Snapshot(current == null ? 1 : current.getVersion() + 1, attractions);
+		snapshot.set(next);
+		if (current != null) {
+			logger.info("Attraction catalog updated to version " + next.getVersion() + " with "
+					+ attractions.size() + " attractions");
+		}
+		return next;
+	}
+
+	/**
+	 * Refreshes the catalog every interval, in a background thread
+	 */
+	public synchronized void startRefreshing(Duration interval) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "attraction-catalog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				// getSnapshot would fetch again while no snapshot is published
+				Snapshot current = snapshot.get();
+				logger.warn("Attraction catalog refresh failed, keeping "
+						+ (current == null ? "no snapshot" : "version " + current.getVersion()), e);
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopRefreshing() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private static boolean sameAttractions(List<Attraction> current, List<Attraction> fetched) {
+		if (current.size() != fetched.size()) {
+			return false;
+		}
+		for (int i = 0; i < current.size(); i++) {
+			Attraction a = current.get(i);
+			Attraction b = fetched.get(i);
+			if (!a.attractionName.equals(b.attractionName) || a.latitude != b.latitude || a.longitude != b.longitude) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Immutable version of the catalog. The attraction indexes are built on first use for each radius and strategy.
+	 */
+	public static final class Snapshot {
+		private final long version;
+		private final Instant loadedAt = Instant.now();
+		private final List<Attraction> attractions;
+		private final Map<UUID, Attraction> attractionsById;
+		private final Map<IndexKey, AttractionIndex> indexes = new ConcurrentHashMap<>();
+
+		private Snapshot(long version, List<Attraction> attractions) {
+			this.version = version;
+			this.attractions = List.copyOf(attractions);
+			Map<UUID, Attraction> byId = new HashMap<>();
+			for (Attraction attraction : this.attractions) {
+				byId.put(attraction.attractionId, attraction);
+			}
+			this.attractionsById = Collections.unmodifiableMap(byId);
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public Instant getLoadedAt() {
+			return loadedAt;
+		}
+
+		public List<Attraction> getAttractions() {
+			return attractions;
+		}
+
+		/**
+		 * @return the attraction with this id in this version, or null
+		 */
+		public Attraction getAttraction(UUID attractionId) {
+			return attractionsById.get(attractionId);
+		}
+
+		public AttractionIndex getIndex(double radiusMiles, DistanceStrategy distanceStrategy) {
+			return indexes.computeIfAbsent(new IndexKey(radiusMiles, distanceStrategy),
+					key -> new AttractionIndex(attractions, radiusMiles, distanceStrategy));
+		}
+
+		private record IndexKey(double radiusMiles, DistanceStrategy distanceStrategy) {
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.openclassrooms.tourguide.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the RewardCentral points, keyed by attraction and user.
+ * Entries expire after a fixed time so the points are refreshed from time to time.
+ */
+public class RewardPointsCache {
+	public static final long DEFAULT_MAXIMUM_SIZE = 100_000;
+	public static final Duration DEFAULT_EXPIRE_AFTER_WRITE = Duration.ofMinutes(30);
+
+	private final Cache<Key, Integer> cache;
+
+	public RewardPointsCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_AFTER_WRITE);
+	}
+
+	public RewardPointsCache(long maximumSize, Duration expireAfterWrite) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+	}
+
+	public int getRewardPoints(UUID attractionId, UUID userId, Supplier<Integer> rewardPointsLoader) {
+		return cache.get(new Key(attractionId, userId), key -> rewardPointsLoader.get());
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public Cache<?, ?> getCache() {
+		return cache;
+	}
+
+	private record Key(UUID attractionId, UUID userId) {
+	}
+}
@@ -0,0 +1,257 @@
+package com.openclassrooms.tourguide.service;
+
+import com.openclassrooms.tourguide.model.RewardsRecomputeStatus;
+import com.openclassrooms.tourguide.model.RewardsRecomputeStatus.State;
+import com.openclassrooms.tourguide.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Recomputes the rewards of every user from their whole location history, for example after the proximity buffer
+ * or the attractions changed. The users are split in fork-join tasks scanning the locations on the common pool,
+ * the RewardCentral lookups of the claimed rewards are submitted by batches to the lookup executor.
+ * The lookup batches in flight are bounded: a scanning task waits for one of them to complete before submitting more,
+ * as a managed blocker so the common pool keeps its parallelism.
+ * One job runs at a time, it can be followed through {@link #getStatus()} and cancelled.
+ */
+public class RewardsRecomputeJob {
+	public static final int DEFAULT_USERS_PER_TASK = 256;
+	public static final int DEFAULT_LOOKUP_BATCH_SIZE = 16;
+	public static final int DEFAULT_MAX_IN_FLIGHT_LOOKUP_BATCHES = 64;
+
+	private final Logger logger = LoggerFactory.getLogger(RewardsRecomputeJob.class);
+	private final RewardsService rewardsService;
+	private final Supplier<List<User>> users;
+	private final Executor lookupExecutor;
+	private final int usersPerTask;
+	private final int lookupBatchSize;
+	private final int maxInFlightLookupBatches;
+	private final AtomicReference<Run> currentRun = new AtomicReference<>();
+
+	public RewardsRecomputeJob(RewardsService rewardsService, Supplier<List<User>> users, Executor lookupExecutor) {
+		this(rewardsService, users, lookupExecutor, DEFAULT_USERS_PER_TASK, DEFAULT_LOOKUP_BATCH_SIZE,
+				DEFAULT_MAX_IN_FLIGHT_LOOKUP_BATCHES);
+	}
+
+	/**
+	 * @param usersPerTask users scanned by a fork-join task, bigger sets are split in two
+	 * @param lookupBatchSize claimed rewards looked up in RewardCentral by one task of the lookup executor
+	 * @param maxInFlightLookupBatches lookup batches submitted and not completed yet, the scan waits beyond it
+	 */
+	public RewardsRecomputeJob(RewardsService rewardsService, Supplier<List<User>> users, Executor lookupExecutor,
+			int usersPerTask, int lookupBatchSize, int maxInFlightLookupBatches) {
+		this.rewardsService = rewardsService;
+		this.users = users;
+		this.lookupExecutor = lookupExecutor;
+		this.usersPerTask = usersPerTask;
+		this.lookupBatchSize = lookupBatchSize;
+		this.maxInFlightLookupBatches = maxInFlightLookupBatches;
+	}
+
+	/**
+	 * Starts a job unless one is running
+	 * @return the future completed when the job ends, or null if a job is already running
+	 */
+	public CompletableFuture<RewardsRecomputeStatus> start() {
+		Run previous = currentRun.get();
+		if (previous != null && previous.state == State.RUNNING) {
+			return null;
+		}
+		List<User> jobUsers = users.get();
+		Run run = new Run(jobUsers.size(), maxInFlightLookupBatches);
+		if (!currentRun.compareAndSet(previous, run)) {
+			return null;
+		}
+		logger.info("Recomputing the rewards of " + jobUsers.size() + " users");
+
+		return CompletableFuture.runAsync(() -> new ScanTask(run, jobUsers, 0, jobUsers.size()).invoke(),
+						ForkJoinPool.commonPool())
+				// every lookup is queued once the scan is done
+				.thenCompose(v -> CompletableFuture.allOf(run.lookups.toArray(new CompletableFuture[0])))
+				.handle((v, e) -> {
+					run.finish(e);
+					RewardsRecomputeStatus status = run.toStatus();
+					logger.info("Rewards recompute " + status.getState() + " after " + status.getScannedUsers()
+							+ " users, " + status.getAddedRewards() + " rewards added");
+					return status;
+				});
+	}
+
+	/**
+	 * Stops the running job: the users not scanned yet are skipped and the claimed rewards not looked up yet are
+	 * released with their locations marked as not rewarded, so the next calculation claims them again
+	 * @return false if no job is running
+	 */
+	public boolean cancel() {
+		Run run = currentRun.get();
+		if (run == null || run.state != State.RUNNING) {
+			return false;
+		}
+		run.cancelled = true;
+		return true;
+	}
+
+	/**
+	 * @return the progress of the running job, or the outcome of the last one
+	 */
+	public RewardsRecomputeStatus getStatus() {
+		Run run = currentRun.get();
+		if (run == null) {
+			return new RewardsRecomputeStatus(State.IDLE, 0, 0, 0, 0, 0, null, null);
+		}
+		return run.toStatus();
+	}
+
+	private static final class Run {
+		private final int totalUsers;
+		private final Instant startedAt = Instant.now();
+		private final LongAdder scannedUsers = new LongAdder();
+		private final LongAdder claimedRewards = new LongAdder();
+		private final LongAdder addedRewards = new LongAdder();
+		private final LongAdder failedRewards = new LongAdder();
+		private final Queue<CompletableFuture<Void>> lookups = new ConcurrentLinkedQueue<>();
+		private final Semaphore inFlightLookups;
+		private volatile boolean cancelled;
+		private volatile State state = State.RUNNING;
+		private volatile Instant finishedAt;
+
+		private Run(int totalUsers, int maxInFlightLookupBatches) {
+			this.totalUsers = totalUsers;
+			this.inFlightLookups = new Semaphore(maxInFlightLookupBatches);
+		}
+
+		private void finish(Throwable failure) {
+			finishedAt = Instant.now();
+			state = failure != null ? State.FAILED : cancelled ? State.CANCELLED : State.COMPLETED;
+		}
+
+		private RewardsRecomputeStatus toStatus() {
+			return new RewardsRecomputeStatus(state, totalUsers, scannedUsers.sum(), claimedRewards.sum(),
+					addedRewards.sum(), failedRewards.sum(), startedAt, finishedAt);
+		}
+	}
+
+	private class ScanTask extends RecursiveAction {
+		private final Run run;
+		private final List<User> users;
+		private final int from;
+		private final int to;
+
+		private ScanTask(Run run, List<User> users, int from, int to) {
+			this.run = run;
+			this.users = users;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (run.cancelled) {
+				return;
+			}
+			if (to - from > usersPerTask) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(run, users, from, middle), new ScanTask(run, users, middle, to));
+				return;
+			}
+
+			List<RewardsService.ClaimedReward> claimedRewards = new ArrayList<>();
+			rewardsService.claimRewards(users.subList(from, to), true, claimedRewards::add);
+			run.scannedUsers.add(to - from);
+			run.claimedRewards.add(claimedRewards.size());
+			for (int i = 0; i < claimedRewards.size(); i += lookupBatchSize) {
+				submitLookups(run, claimedRewards.subList(i, Math.min(claimedRewards.size(), i + lookupBatchSize)));
+			}
+		}
+	}
+
+	private void submitLookups(Run run, List<RewardsService.ClaimedReward> lookupBatch) {
+		try {
+			ForkJoinPool.managedBlock(new LookupPermit(run.inFlightLookups));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			releaseRewards(lookupBatch);
+			return;
+		}
+		if (run.cancelled) {
+			run.inFlightLookups.release();
+			releaseRewards(lookupBatch);
+			return;
+		}
+		try {
+			run.lookups.add(CompletableFuture.runAsync(() -> addRewards(run, lookupBatch), lookupExecutor)
+					.whenComplete((v, e) -> run.inFlightLookups.release()));
+		} catch (RejectedExecutionException e) {
+			run.inFlightLookups.release();
+			run.failedRewards.add(lookupBatch.size());
+			releaseRewards(lookupBatch);
+			logger.warn("Lookup executor rejected a batch of " + lookupBatch.size() + " rewards, they are released");
+		}
+	}
+
+	// the next calculation claims the released rewards again
+	private void releaseRewards(List<RewardsService.ClaimedReward> claimedRewards) {
+		claimedRewards.forEach(rewardsService::releaseReward);
+	}
+
+	/**
+	 * Waits for a lookup batch slot, the common pool may start a spare worker meanwhile
+	 */
+	private static final class LookupPermit implements ForkJoinPool.ManagedBlocker {
+		private final Semaphore permits;
+		private boolean acquired;
+
+		private LookupPermit(Semaphore permits) {
+			this.permits = permits;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				permits.acquire();
+				acquired = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (!acquired) {
+				acquired = permits.tryAcquire();
+			}
+			return acquired;
+		}
+	}
+
+	private void addRewards(Run run, List<RewardsService.ClaimedReward> claimedRewards) {
+		for (RewardsService.ClaimedReward claimedReward : claimedRewards) {
+			if (run.cancelled) {
+				rewardsService.releaseReward(claimedReward);
+				continue;
+			}
+			try {
+				rewardsService.addReward(claimedReward);
+				run.addedRewards.increment();
+			} catch (RuntimeException e) {
+				// addReward released the claim and the locations, the reward is looked up again by the next calculation
+				run.failedRewards.increment();
+				logger.warn("Reward lookup failed for " + claimedReward.user().getUserName(), e);
+			}
+		}
+	}
+}
@@ -1,5 +1,13 @@
 package com.openclassrooms.tourguide.service;
 
+import com.openclassrooms.tourguide.concurrent.TaskExecutors;
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
+import com.openclassrooms.tourguide.spatial.AttractionIndex;
+import com.openclassrooms.tourguide.spatial.BatchProximityEngine;
+import com.openclassrooms.tourguide.spatial.DistanceStrategy;
+import com.openclassrooms.tourguide.spatial.LocationBatch;
+import com.openclassrooms.tourguide.spatial.ProximityMode;
+import com.openclassrooms.tourguide.user.LocationHistory;
 import com.openclassrooms.tourguide.user.User;
 import com.openclassrooms.tourguide.user.UserReward;
 import gpsUtil.GpsUtil;
@@ -8,63 +16,138 @@ import gpsUtil.location.Location;
 import gpsUtil.location.VisitedLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Service;
 import rewardCentral.RewardCentral;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
-@Service
 public class RewardsService {
-	private static final double STATUTE_MILES_PER_NAUTICAL_MILE = 1.15077945;
 	public static final int FIXED_THREAD_POOLS_SIZE = 300;
+	// locations tested at once by the batch proximity engine
+	private static final int PROXIMITY_BATCH_SIZE = 4096;
+	private static final long NO_CATALOG_VERSION = -1;
 
 	// proximity in miles
     private int defaultProximityBuffer = 100;
-	private int proximityBuffer = defaultProximityBuffer;
+	private volatile int proximityBuffer = defaultProximityBuffer;
+	private volatile DistanceStrategy distanceStrategy = DistanceStrategy.UNIT_VECTOR;
 	private int attractionProximityRange = 200;
-	private final GpsUtil gpsUtil;
+	private final AttractionCatalog attractionCatalog;
 	private final RewardCentral rewardsCentral;
+	private final RewardPointsCache rewardPointsCache;
 
-	private final ExecutorService executorService = Executors.newFixedThreadPool(FIXED_THREAD_POOLS_SIZE);
+	private final ExecutorService executorService;
+	// created by the service when no executor is given, shut down with it
+	private ExecutorService ownedExecutorService;
 	private final Logger logger = LoggerFactory.getLogger(RewardsService.class);
 
-	private List<Attraction> attractionList;
+	// catalog version of the attractions used by the last calculation
+	private final AtomicLong rewardedCatalogVersion = new AtomicLong(NO_CATALOG_VERSION);
+	// bumped whenever the rewards of already processed locations may change
+	private final AtomicInteger rewardsGeneration = new AtomicInteger();
+	// RewardCentral lookups skipped because the user was already rewarded for the attraction
+	private final LongAdder avoidedRewardLookups = new LongAdder();
+	private volatile UserStateJournal userStateJournal = UserStateJournal.NOOP;
+	// null when the locations are looked up one by one in the attraction index
+	private volatile BatchProximityEngine batchProximityEngine;
 	
 	public RewardsService(GpsUtil gpsUtil, RewardCentral rewardCentral) {
-		this.gpsUtil = gpsUtil;
+		this(gpsUtil, rewardCentral, new RewardPointsCache());
+	}
+
+	public RewardsService(GpsUtil gpsUtil, RewardCentral rewardCentral, RewardPointsCache rewardPointsCache) {
+		this(gpsUtil, rewardCentral, rewardPointsCache, TaskExecutors.createFixedPool(FIXED_THREAD_POOLS_SIZE));
+		this.ownedExecutorService = executorService;
+	}
+
+	public RewardsService(GpsUtil gpsUtil, RewardCentral rewardCentral, RewardPointsCache rewardPointsCache,
+			ExecutorService executorService) {
+		this(new AttractionCatalog(gpsUtil), rewardCentral, rewardPointsCache, executorService);
+	}
+
+	public RewardsService(AttractionCatalog attractionCatalog, RewardCentral rewardCentral,
+			RewardPointsCache rewardPointsCache, ExecutorService executorService) {
+		this.attractionCatalog = attractionCatalog;
 		this.rewardsCentral = rewardCentral;
+		this.rewardPointsCache = rewardPointsCache;
+		this.executorService = executorService;
 	}
 	
+	/**
+	 * Shuts down the executor created by the service, a given executor is left to its owner
+	 */
+	public void shutdown() {
+		if (ownedExecutorService != null) {
+			ownedExecutorService.shutdown();
+		}
+	}
+
 	public void setProximityBuffer(int proximityBuffer) {
 		this.proximityBuffer = proximityBuffer;
+		proximityChanged();
 	}
 	
 	public void setDefaultProximityBuffer() {
-		proximityBuffer = defaultProximityBuffer;
+		setProximityBuffer(defaultProximityBuffer);
+	}
+
+	public void setDistanceStrategy(DistanceStrategy distanceStrategy) {
+		this.distanceStrategy = distanceStrategy;
+		proximityChanged();
+	}
+
+	public void setUserStateJournal(UserStateJournal userStateJournal) {
+		this.userStateJournal = userStateJournal;
+	}
+
+	public void setProximityMode(ProximityMode proximityMode) {
+		BatchProximityEngine engine = null;
+		if (proximityMode == ProximityMode.VECTOR_BATCH) {
+			engine = BatchProximityEngine.vectorized();
+			if (engine == null) {
+				logger.warn("The Vector API is not available, using the scalar batch proximity engine");
+			}
+		}
+		if (engine == null && proximityMode != ProximityMode.INDEX) {
+			engine = BatchProximityEngine.scalar();
+		}
+		this.batchProximityEngine = engine;
 	}
 
 
+	/**
+	 * Calculates the rewards of the locations visited since the previous calculation for this user
+	 */
 	public CompletableFuture<Void> calculateRewards(User user) {
+		return calculateRewards(user, false);
+	}
 
-		List<VisitedLocation> userLocations = user.getVisitedLocations();
-		List<Attraction> attractions = getAttractions();
-		List<VisitedLocation> userLocationsCopy = new ArrayList<>(userLocations);
+	/**
+	 * Calculates the rewards of the user, going through the whole location history when fullRecompute is set
+	 */
+	public CompletableFuture<Void> calculateRewards(User user, boolean fullRecompute) {
+		return calculateRewards(List.of(user), fullRecompute);
+	}
 
-		List<CompletableFuture<Void>> futures = new ArrayList<>();
+	/**
+	 * Calculates the rewards of the locations visited by the users since their previous calculation,
+	 * testing the locations of several users at once with the batch proximity engine when one is set
+	 */
+	public CompletableFuture<Void> calculateRewards(List<User> users) {
+		return calculateRewards(users, false);
+	}
 
-		for (VisitedLocation visitedLocation : userLocationsCopy) {
-			for (Attraction attraction : attractions) {
-				if (nearAttraction(visitedLocation, attraction)) {
-					CompletableFuture<Void> future = CompletableFuture.runAsync(() ->
-							addReward(user, visitedLocation, attraction), executorService);
-					futures.add(future);
-				}
-			}
-		}
+	private CompletableFuture<Void> calculateRewards(List<User> users, boolean fullRecompute) {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		claimRewards(users, fullRecompute, claimedReward ->
+				futures.add(CompletableFuture.runAsync(() -> addReward(claimedReward), executorService)));
 
 		//Attendre la complétion de tout les future
 		CompletableFuture<Void>[] futureArray = futures.toArray(new CompletableFuture[0]);
@@ -72,19 +155,140 @@ public class RewardsService {
 		return CompletableFuture.allOf(futureArray);
 	}
 
-	private List<Attraction> getAttractions() {
-		if (attractionList == null){
-			attractionList = gpsUtil.getAttractions();
-			return attractionList;
-		} else {
-			return attractionList;
+	/**
+	 * Reward of an attraction claimed for a user, whose points still have to be looked up.
+	 * The generation and the first sequence of the scan that claimed it let a failed lookup put the locations back.
+	 */
+	record ClaimedReward(User user, VisitedLocation visitedLocation, Attraction attraction, int generation,
+			long fromSequence) {
+	}
+
+	/**
+	 * Finds the attractions near the locations of the users and claims their rewards, without looking up the points.
+	 * Every claim handed to the consumer must end with {@link #addReward(ClaimedReward)}
+	 * or {@link #releaseReward(ClaimedReward)}.
+	 */
+	void claimRewards(List<User> users, boolean fullRecompute, Consumer<ClaimedReward> claims) {
+		// the index first, so the generation read includes a change of the catalog it detects
+		AttractionIndex index = getAttractionIndex();
+		int generation = rewardsGeneration.get();
+		BatchProximityEngine engine = batchProximityEngine;
+		List<User> batchUsers = new ArrayList<>();
+		List<Long> batchFromSequences = new ArrayList<>();
+		LocationBatch batch = new LocationBatch();
+
+		for (User user : users) {
+			LocationHistory.Snapshot locations = user.getLocationHistory().snapshot();
+			long toSequence = locations.getEndSequence();
+			long markedFromSequence = user.markLocationsRewarded(generation, toSequence);
+			long fromSequence = fullRecompute ? 0 : markedFromSequence;
+
+			if (engine == null) {
+				// the locations are read from the history columns, a VisitedLocation is only created for a reward
+				locations.forEach(fromSequence, toSequence, (sequence, latitude, longitude, timeMillis) -> {
+					for (Attraction attraction : index.within(latitude, longitude)) {
+						claimReward(user, latitude, longitude, timeMillis, attraction, generation, fromSequence, claims);
+					}
+				});
+				continue;
+			}
+			int owner = batchUsers.size();
+			batchUsers.add(user);
+			batchFromSequences.add(fromSequence);
+			locations.forEach(fromSequence, toSequence, (sequence, latitude, longitude, timeMillis) ->
+					batch.add(owner, latitude, longitude, timeMillis));
+			if (batch.size() >= PROXIMITY_BATCH_SIZE) {
+				claimBatchRewards(engine, index, batch, batchUsers, batchFromSequences, generation, claims);
+			}
+		}
+		if (engine != null) {
+			claimBatchRewards(engine, index, batch, batchUsers, batchFromSequences, generation, claims);
+		}
+	}
+
+	private void claimBatchRewards(BatchProximityEngine engine, AttractionIndex index, LocationBatch batch,
+			List<User> batchUsers, List<Long> batchFromSequences, int generation, Consumer<ClaimedReward> claims) {
+		engine.forEachWithin(index, batch, (location, attraction) -> {
+			int owner = batch.getOwner(location);
+			claimReward(batchUsers.get(owner), batch.getLatitude(location), batch.getLongitude(location),
+					batch.getTimeMillis(location), attraction, generation, batchFromSequences.get(owner), claims);
+		});
+		batch.clear();
+		batchUsers.clear();
+		batchFromSequences.clear();
+	}
+
+	private void claimReward(User user, double latitude, double longitude, long timeMillis, Attraction attraction,
+			int generation, long fromSequence, Consumer<ClaimedReward> claims) {
+		if (!user.claimReward(attraction.attractionName)) {
+			avoidedRewardLookups.increment();
+			return;
+		}
+		VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), new Location(latitude, longitude),
+				new Date(timeMillis));
+		claims.accept(new ClaimedReward(user, visitedLocation, attraction, generation, fromSequence));
+	}
+
+	public List<Attraction> getAttractions() {
+		return attractionCatalog.getSnapshot().getAttractions();
+	}
+
+	public AttractionCatalog getAttractionCatalog() {
+		return attractionCatalog;
+	}
+
+	/**
+	 * Reloads the attraction catalog from gpsUtil
+	 */
+	public List<Attraction> refreshAttractions() {
+		return attractionCatalog.refresh().getAttractions();
+	}
+
+	private AttractionIndex getAttractionIndex() {
+		AttractionCatalog.Snapshot snapshot = attractionCatalog.getSnapshot();
+		long version = rewardedCatalogVersion.get();
+		if (version != snapshot.getVersion() && rewardedCatalogVersion.compareAndSet(version, snapshot.getVersion())
+				&& version != NO_CATALOG_VERSION) {
+			// the attractions changed since the processed locations were rewarded
+			rewardsGeneration.incrementAndGet();
+		}
+		return snapshot.getIndex(proximityBuffer, distanceStrategy);
+	}
+
+	private void proximityChanged() {
+		if (rewardedCatalogVersion.get() != NO_CATALOG_VERSION) {
+			rewardsGeneration.incrementAndGet();
 		}
 	}
 
-	//Bouger le getReward après etre sur qu'on peut ajouter le UserReward
-	private void addReward(User user, VisitedLocation visitedLocation, Attraction attraction) {
-		int rewardPoints = getRewardPoints(attraction, user);
-		user.addUserReward(new UserReward(visitedLocation, attraction, rewardPoints));
+	// the reward has been claimed by the caller, so the points are only fetched once per attraction
+	void addReward(ClaimedReward claimedReward) {
+		User user = claimedReward.user();
+		Attraction attraction = claimedReward.attraction();
+		try {
+			int rewardPoints = getRewardPoints(attraction, user);
+			UserReward userReward = new UserReward(claimedReward.visitedLocation(), attraction, rewardPoints);
+			if (user.addUserReward(userReward)) {
+				userStateJournal.appendUserReward(user, userReward);
+			}
+		} catch (RuntimeException e) {
+			releaseReward(claimedReward);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a claimed reward which was not added, and puts the locations of its scan back
+	 * so the next calculation claims it again
+	 */
+	void releaseReward(ClaimedReward claimedReward) {
+		User user = claimedReward.user();
+		user.releaseRewardClaim(claimedReward.attraction().attractionName);
+		user.unmarkLocationsRewarded(claimedReward.generation(), claimedReward.fromSequence());
+	}
+
+	public long getAvoidedRewardLookups() {
+		return avoidedRewardLookups.sum();
 	}
 
 
@@ -92,29 +296,13 @@ public class RewardsService {
 		return getDistance(attraction, location) > attractionProximityRange ? false : true;
 	}
 	
-	private boolean nearAttraction(VisitedLocation visitedLocation, Attraction attraction) {
-		return getDistance(attraction, visitedLocation.location) > proximityBuffer ? false : true;
-	}
-	
 	public int getRewardPoints(Attraction attraction, User user) {
-		/*CompletableFuture<Integer> futureRewardPoints = CompletableFuture.supplyAsync(() ->
-		rewardsCentral.getAttractionRewardPoints(attraction.attractionId, user.getUserId()));*/
-		return rewardsCentral.getAttractionRewardPoints(attraction.attractionId, user.getUserId());
-
-		/*return futureRewardPoints.join();*/
+		return rewardPointsCache.getRewardPoints(attraction.attractionId, user.getUserId(),
+				() -> rewardsCentral.getAttractionRewardPoints(attraction.attractionId, user.getUserId()));
 	}
 	
 	public double getDistance(Location loc1, Location loc2) {
-        double lat1 = Math.toRadians(loc1.latitude);
-        double lon1 = Math.toRadians(loc1.longitude);
-        double lat2 = Math.toRadians(loc2.latitude);
-        double lon2 = Math.toRadians(loc2.longitude);
-
-        double angle = Math.acos(Math.sin(lat1) * Math.sin(lat2)
-                               + Math.cos(lat1) * Math.cos(lat2) * Math.cos(lon1 - lon2));
-
-        double nauticalMiles = 60 * Math.toDegrees(angle);
-		return STATUTE_MILES_PER_NAUTICAL_MILE * nauticalMiles;
+		return distanceStrategy.distance(loc1.latitude, loc1.longitude, loc2.latitude, loc2.longitude);
 	}
 
 }
@@ -1,30 +1,46 @@
 package com.openclassrooms.tourguide.service;
 
+import com.openclassrooms.tourguide.concurrent.TaskExecutors;
+import com.openclassrooms.tourguide.config.TourGuideProperties;
 import com.openclassrooms.tourguide.helper.InternalTestHelper;
 import com.openclassrooms.tourguide.mapper.NearAttractionMapper;
 import com.openclassrooms.tourguide.model.NearAttractionResult;
 import com.openclassrooms.tourguide.model.NearbyAttraction;
+import com.openclassrooms.tourguide.model.UserLocation;
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
+import com.openclassrooms.tourguide.sharding.UserPartition;
+import com.openclassrooms.tourguide.spatial.BoundingBox;
 import com.openclassrooms.tourguide.tracker.Tracker;
+import com.openclassrooms.tourguide.tracker.TrackingPipeline;
+import com.openclassrooms.tourguide.user.InMemoryUserRepository;
+import com.openclassrooms.tourguide.user.LocationHistory;
 import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserPreferences;
+import com.openclassrooms.tourguide.user.UserRepository;
 import com.openclassrooms.tourguide.user.UserReward;
 import gpsUtil.GpsUtil;
 import gpsUtil.location.Attraction;
 import gpsUtil.location.Location;
 import gpsUtil.location.VisitedLocation;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import tripPricer.Provider;
 import tripPricer.TripPricer;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class TourGuideService {
@@ -32,17 +48,55 @@ public class TourGuideService {
 	private final GpsUtil gpsUtil;
 	private final RewardsService rewardsService;
 	private final TripPricer tripPricer = new TripPricer();
+	public static final int DEFAULT_NEARBY_ATTRACTIONS = 5;
 	public final Tracker tracker;
 	boolean testMode = true;
 
 	private final NearAttractionMapper nearAttractionMapper;
 
-	private final ExecutorService executorService = Executors.newFixedThreadPool(300);
+	private final ExecutorService executorService;
+	// created by the service when no executor is given, shut down with the tracker
+	private ExecutorService ownedExecutorService;
+	private final TrackingPipeline trackingPipeline;
+	private final UserPartition userPartition;
+	private final UserRepository userRepository;
+	private final UserStateJournal userStateJournal;
+	private final TourGuideProperties.History historyProperties;
+	private final TripDealsCache tripDealsCache;
+	private final AttractionCatalog attractionCatalog;
+	private final Duration locationMaxAge;
 
 	public TourGuideService(GpsUtil gpsUtil, RewardsService rewardsService, NearAttractionMapper mapper) {
+		this(gpsUtil, rewardsService, mapper, TaskExecutors.createFixedPool(RewardsService.FIXED_THREAD_POOLS_SIZE));
+		this.ownedExecutorService = executorService;
+	}
+
+	public TourGuideService(GpsUtil gpsUtil, RewardsService rewardsService, NearAttractionMapper mapper,
+			ExecutorService executorService) {
+		this(gpsUtil, rewardsService, mapper, executorService, new TourGuideProperties(), UserPartition.ALL,
+				new InMemoryUserRepository(), UserStateJournal.NOOP, new TripDealsCache(),
+				rewardsService.getAttractionCatalog());
+	}
+
+	@Autowired
+	public TourGuideService(GpsUtil gpsUtil, RewardsService rewardsService, NearAttractionMapper mapper,
+			@Qualifier("trackingExecutor") ExecutorService executorService, TourGuideProperties properties,
+			UserPartition userPartition, UserRepository userRepository, UserStateJournal userStateJournal,
+			TripDealsCache tripDealsCache, AttractionCatalog attractionCatalog) {
 		this.gpsUtil = gpsUtil;
+		this.userRepository = userRepository;
 		this.rewardsService = rewardsService;
 		this.nearAttractionMapper = mapper;
+		this.executorService = executorService;
+		this.userPartition = userPartition;
+		this.userStateJournal = userStateJournal;
+		this.historyProperties = properties.getHistory();
+		this.tripDealsCache = tripDealsCache;
+		this.attractionCatalog = attractionCatalog;
+		this.locationMaxAge = properties.getLocation().getMaxAge();
+		TourGuideProperties.Tracking tracking = properties.getTracking();
+		this.trackingPipeline = new TrackingPipeline(gpsUtil, rewardsService, executorService,
+				tracking.getBatchSize(), tracking.getMaxInFlightBatches(), userStateJournal);
 
 		Locale.setDefault(Locale.US);
 
@@ -52,81 +106,268 @@ public class TourGuideService {
 			initializeInternalUsers();
 			logger.debug("Finished initializing users");
 		}
-		tracker = new Tracker(this);
+		// replayed before the tracker starts so no tracked location comes before the journaled ones; they are
+		// appended after the history generated for the internal users
+		userStateJournal.replay(userRepository, this::createUser);
+		tracker = new Tracker(this, tracking);
 		addShutDownHook();
 	}
 
-	public List<UserReward> getUserRewards(User user) {
+	public Collection<UserReward> getUserRewards(User user) {
 		return user.getUserRewards();
 	}
 
 	public VisitedLocation getUserLocation(User user) {
-		return (user.getVisitedLocations().isEmpty()) ? user.getLastVisitedLocation()
-				: trackUserLocation(user).join();
+		return getUserLocationAsync(user).join();
+	}
+
+	public CompletableFuture<VisitedLocation> getUserLocationAsync(User user) {
+		return getUserLocationAsync(user, locationMaxAge);
+	}
+
+	/**
+	 * Completes with the last known location of the user if it is newer than maxStaleness,
+	 * otherwise with a new location as soon as it is known, whose rewards are calculated in the background
+	 */
+	public CompletableFuture<VisitedLocation> getUserLocationAsync(User user, Duration maxStaleness) {
+		Optional<VisitedLocation> lastVisitedLocation = user.getLocationHistory().last(user.getUserId());
+		if (lastVisitedLocation.isPresent()) {
+			long age = System.currentTimeMillis() - lastVisitedLocation.get().timeVisited.getTime();
+			if (age < maxStaleness.toMillis()) {
+				return CompletableFuture.completedFuture(lastVisitedLocation.get());
+			}
+		}
+		return locateUser(user);
 	}
 
 	public User getUser(String userName) {
-		return internalUserMap.get(userName);
+		return userRepository.findByUserName(userName);
+	}
+
+	public User getUser(UUID userId) {
+		return userRepository.findByUserId(userId);
+	}
+
+	/**
+	 * @return whether the user exists and belongs to the partition tracked by this node, without going through the
+	 *         other users
+	 */
+	public boolean isLocalUser(UUID userId) {
+		User user = userRepository.findByUserId(userId);
+		return user != null && userPartition.owns(user);
 	}
 
 	public List<User> getAllUsers() {
-		return internalUserMap.values().stream().collect(Collectors.toList());
+		return new ArrayList<>(userRepository.findAll());
+	}
+
+	/**
+	 * @return a view of the users of the partition tracked by this node, filtered while iterating
+	 */
+	public Collection<User> getLocalUsers() {
+		userPartition.refresh();
+		Collection<User> users = userRepository.findAll();
+		if (userPartition == UserPartition.ALL) {
+			return users;
+		}
+		return new AbstractCollection<>() {
+			@Override
+			public Iterator<User> iterator() {
+				return users.stream().filter(userPartition::owns).iterator();
+			}
+
+			@Override
+			public int size() {
+				return (int) users.stream().filter(userPartition::owns).count();
+			}
+		};
+	}
+
+	/**
+	 * Streams the last known location of every user, read from the location histories while the stream is consumed
+	 * @param boundingBox keeps only the locations within this box, null to keep them all
+	 * @param updatedSince keeps only the locations visited at or after this time, null to keep them all
+	 */
+	public Stream<UserLocation> getLastLocations(BoundingBox boundingBox, Instant updatedSince) {
+		long updatedSinceMillis = updatedSince == null ? Long.MIN_VALUE : updatedSince.toEpochMilli();
+		return userRepository.findAll().stream().map(user -> {
+			LocationHistory.Snapshot locations = user.getLocationHistory().snapshot();
+			if (locations.isEmpty()) {
+				return null;
+			}
+			long last = locations.getEndSequence() - 1;
+			double latitude = locations.getLatitude(last);
+			double longitude = locations.getLongitude(last);
+			long timeMillis = locations.getTimeMillis(last);
+			if (timeMillis < updatedSinceMillis || (boundingBox != null && !boundingBox.contains(latitude, longitude))) {
+				return null;
+			}
+			return new UserLocation(user.getUserId(), latitude, longitude, new Date(timeMillis));
+		}).filter(Objects::nonNull);
 	}
 
+	/**
+	 * Adds the user to the repository; with sharding, the node owning the user only tracks it if the repository
+	 * is shared by the nodes
+	 */
 	public void addUser(User user) {
-		if (!internalUserMap.containsKey(user.getUserName())) {
-			internalUserMap.put(user.getUserName(), user);
+		if (userRepository.putIfAbsent(user) == null) {
+			userStateJournal.appendUser(user);
 		}
 	}
 
+	private User createUser(UUID userId, String userName, String phoneNumber, String emailAddress) {
+		return new User(userId, userName, phoneNumber, emailAddress, new LocationHistory(
+				historyProperties.getMaxLocations(), historyProperties.getMaxAge(), LocationHistory.SpillListener.NONE));
+	}
+
 	public List<Provider> getTripDeals(User user) {
-		int cumulatativeRewardPoints = user.getUserRewards().stream().mapToInt(UserReward::getRewardPoints).sum();
-		List<Provider> providers = tripPricer.getPrice(tripPricerApiKey, user.getUserId(),
-				user.getUserPreferences().getNumberOfAdults(), user.getUserPreferences().getNumberOfChildren(),
-				user.getUserPreferences().getTripDuration(), cumulatativeRewardPoints);
-		user.setTripDeals(providers);
-		return providers;
+		return getTripDealsAsync(user).join();
+	}
+
+	public CompletableFuture<List<Provider>> getTripDealsAsync(User user) {
+		int cumulatativeRewardPoints = (int) user.getTotalRewardPoints();
+		UserPreferences preferences = user.getUserPreferences();
+		int adults = preferences.getNumberOfAdults();
+		int children = preferences.getNumberOfChildren();
+		int tripDuration = preferences.getTripDuration();
+		return tripDealsCache.getTripDeals(user.getUserId(), adults, children, tripDuration,
+				cumulatativeRewardPoints, () -> tripPricer.getPrice(tripPricerApiKey, user.getUserId(), adults,
+						children, tripDuration, cumulatativeRewardPoints), executorService)
+				.thenApply(providers -> {
+					user.setTripDeals(providers);
+					return providers;
+				});
 	}
 
+	/**
+	 * Fetches and records the user location, then calculates the rewards; completes once both are done
+	 */
 	public CompletableFuture<VisitedLocation> trackUserLocation(User user) {
+		return fetchUserLocation(user).thenComposeAsync((visitedLocation) ->
+				rewardsService.calculateRewards(user).thenApply((x) -> visitedLocation), executorService);
+	}
 
-		CompletableFuture<VisitedLocation> futureLocation = CompletableFuture.supplyAsync(() -> {
-					VisitedLocation visitedLocation = gpsUtil.getUserLocation(user.getUserId());
-					user.addToVisitedLocations(visitedLocation);
-					return visitedLocation;
-				}, executorService);
+	/**
+	 * Fetches and records the user location, completes without waiting for the rewards calculation
+	 */
+	private CompletableFuture<VisitedLocation> locateUser(User user) {
+		CompletableFuture<VisitedLocation> futureLocation = fetchUserLocation(user);
+		futureLocation.thenComposeAsync((visitedLocation) -> rewardsService.calculateRewards(user), executorService)
+				.exceptionally(e -> {
+					logger.warn("Could not calculate the rewards of user " + user.getUserName(), e);
+					return null;
+				});
+		return futureLocation;
+	}
 
-		CompletableFuture<VisitedLocation> futureReward = futureLocation.thenComposeAsync((visitedLocation) ->
-						rewardsService.calculateRewards(user).thenApply((x) -> visitedLocation), executorService);
+	private CompletableFuture<VisitedLocation> fetchUserLocation(User user) {
+		return CompletableFuture.supplyAsync(() -> {
+			VisitedLocation visitedLocation = gpsUtil.getUserLocation(user.getUserId());
+			user.addToVisitedLocations(visitedLocation);
+			userStateJournal.appendVisitedLocation(user, visitedLocation);
+			return visitedLocation;
+		}, executorService);
+	}
 
-		return futureReward;
+	/**
+	 * Tracks the users by batches, see {@link TrackingPipeline}
+	 */
+	public CompletableFuture<Void> trackUsers(Collection<User> users) {
+		return trackingPipeline.track(users);
 	}
 
-	public NearAttractionResult getNearByAttractions(VisitedLocation visitedLocation, User user) {
-		NearAttractionResult nearAttractionResult = new NearAttractionResult();
-		List<NearbyAttraction> nearbyAttractionList = new ArrayList<>();
+	public CompletableFuture<Void> trackUsers(Collection<User> users, Duration maxDuration) {
+		return trackingPipeline.track(users, maxDuration);
+	}
 
-		for (Attraction attraction : gpsUtil.getAttractions()) {
+	/**
+	 * Compacts the journal of the user state once it has grown past its compaction threshold
+	 */
+	public void compactUserStateJournal() {
+		if (userStateJournal.needsCompaction()) {
+			userStateJournal.compact(userRepository.findAll());
+		}
+	}
 
-			NearbyAttraction nearbyAttraction = nearAttractionMapper.attractionToNearbyAttraction(attraction, visitedLocation.location);
+	public int getAttractionCount() {
+		return attractionCatalog.getSnapshot().getAttractions().size();
+	}
 
-			nearbyAttraction.setDistance(rewardsService.getDistance(attraction, visitedLocation.location));
-			nearbyAttraction.setRewardPoint(rewardsService.getRewardPoints(attraction, user));
-			nearbyAttractionList.add(nearbyAttraction);
-		}
+	public NearAttractionResult getNearByAttractions(VisitedLocation visitedLocation, User user) {
+		return getNearByAttractions(visitedLocation, user, DEFAULT_NEARBY_ATTRACTIONS);
+	}
+
+	/**
+	 * Returns the limit closest attractions to the visited location, with the reward points
+	 * the user would get there. Points are only fetched for the selected attractions.
+	 */
+	public NearAttractionResult getNearByAttractions(VisitedLocation visitedLocation, User user, int limit) {
+		return getNearByAttractionsAsync(visitedLocation, user, limit).join();
+	}
 
-		nearbyAttractionList = getFiveClosestAttraction(nearbyAttractionList);
+	/**
+	 * Completes once the reward points of the closest attractions are known
+	 */
+	public CompletableFuture<NearAttractionResult> getNearByAttractionsAsync(VisitedLocation visitedLocation, User user,
+			int limit) {
+
+		List<CompletableFuture<NearbyAttraction>> futures = new ArrayList<>();
+		for (AttractionDistance closest : getClosestAttractions(visitedLocation.location, limit)) {
+			NearbyAttraction nearbyAttraction = nearAttractionMapper.attractionToNearbyAttraction(closest.attraction(), visitedLocation.location);
+			nearbyAttraction.setDistance(closest.distance());
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				nearbyAttraction.setRewardPoint(rewardsService.getRewardPoints(closest.attraction(), user));
+				return nearbyAttraction;
+			}, executorService));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(x -> {
+			NearAttractionResult nearAttractionResult = new NearAttractionResult();
+			nearAttractionResult.setUserLong(visitedLocation.location.longitude);
+			nearAttractionResult.setUserLat(visitedLocation.location.latitude);
+			nearAttractionResult.setNearbyAttractionList(
+					futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+			return nearAttractionResult;
+		});
+	}
 
-		nearAttractionResult.setUserLong(visitedLocation.location.longitude);
-		nearAttractionResult.setUserLat(visitedLocation.location.latitude);
-		nearAttractionResult.setNearbyAttractionList(nearbyAttractionList);
+	// bounded max-heap on the distance, the farthest of the selected attractions is replaced first
+	private List<AttractionDistance> getClosestAttractions(Location location, int requestedLimit) {
+		List<Attraction> attractions = attractionCatalog.getSnapshot().getAttractions();
+		// the heap is sized from the limit, which comes from the client
+		int limit = Math.min(requestedLimit, attractions.size());
+		if (limit <= 0) {
+			return Collections.emptyList();
+		}
+		PriorityQueue<AttractionDistance> closest = new PriorityQueue<>(limit,
+				Comparator.comparingDouble(AttractionDistance::distance).reversed());
+		for (Attraction attraction : attractions) {
+			double distance = rewardsService.getDistance(attraction, location);
+			if (closest.size() < limit) {
+				closest.add(new AttractionDistance(attraction, distance));
+			} else if (distance < closest.peek().distance()) {
+				closest.poll();
+				closest.add(new AttractionDistance(attraction, distance));
+			}
+		}
+		List<AttractionDistance> result = new ArrayList<>(closest);
+		result.sort(Comparator.comparingDouble(AttractionDistance::distance));
+		return result;
+	}
 
-		return nearAttractionResult;
+	private record AttractionDistance(Attraction attraction, double distance) {
 	}
 
-	private List<NearbyAttraction> getFiveClosestAttraction(List<NearbyAttraction> attractionsDistance) {
-		Collections.sort(attractionsDistance, Comparator.comparingDouble(NearbyAttraction::getDistance));
-		return attractionsDistance.subList(0, Math.min(5, attractionsDistance.size()));
+	/**
+	 * Stops the tracker before the application context shuts the executors down,
+	 * and shuts down the executor created by the service
+	 */
+	@PreDestroy
+	public void stopTracking() {
+		tracker.stopTracking();
+		if (ownedExecutorService != null) {
+			ownedExecutorService.shutdown();
+		}
 	}
 
 	private void addShutDownHook() {
@@ -145,17 +386,16 @@ public class TourGuideService {
 	private static final String tripPricerApiKey = "test-server-api-key";
 	// Database connection will be used for external users, but for testing purposes
 	// internal users are provided and stored in memory
-	private final Map<String, User> internalUserMap = new HashMap<>();
 
 	private void initializeInternalUsers() {
 		IntStream.range(0, InternalTestHelper.getInternalUserNumber()).forEach(i -> {
 			String userName = "internalUser" + i;
 			String phone = "000";
 			String email = userName + "@tourGuide.com";
-			User user = new User(UUID.randomUUID(), userName, phone, email);
+			User user = createUser(UUID.randomUUID(), userName, phone, email);
 			generateUserLocationHistory(user);
 
-			internalUserMap.put(userName, user);
+			userRepository.putIfAbsent(user);
 		});
 		logger.debug("Created " + InternalTestHelper.getInternalUserNumber() + " internal test users.");
 	}
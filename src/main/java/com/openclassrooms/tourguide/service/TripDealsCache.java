@@ -0,0 +1,86 @@
+package com.openclassrooms.tourguide.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import tripPricer.Provider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the TripPricer quotes, keyed by user, trip preferences and reward points.
+ * Identical requests made while a quote is being priced share the same TripPricer call.
+ * Only the latest quote of a user is kept: requesting a quote for other preferences or another
+ * reward total invalidates the previous one.
+ */
+public class TripDealsCache {
+	public static final long DEFAULT_MAXIMUM_SIZE = 100_000;
+	public static final Duration DEFAULT_EXPIRE_AFTER_WRITE = Duration.ofMinutes(10);
+
+	private final AsyncCache<Key, List<Provider>> cache;
+	// bounded by the cache: the latest key of a user is forgotten once its quote leaves the cache
+	private final Map<UUID, Key> latestKeys = new ConcurrentHashMap<>();
+
+	public TripDealsCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_AFTER_WRITE);
+	}
+
+	public TripDealsCache(long maximumSize, Duration expireAfterWrite) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.removalListener((Key key, List<Provider> tripDeals, RemovalCause cause) -> {
+					// a newer key of the user stays, the quote it stands for is still cached
+					if (key != null) {
+						latestKeys.remove(key.userId(), key);
+					}
+				})
+				.buildAsync();
+	}
+
+	/**
+	 * Returns the cached quote, or the quote being priced, or prices it on the executor.
+	 * A failed pricing is not cached.
+	 */
+	public CompletableFuture<List<Provider>> getTripDeals(UUID userId, int adults, int children, int tripDuration,
+			int rewardPoints, Supplier<List<Provider>> tripDealsLoader, Executor executor) {
+		Key key = new Key(userId, adults, children, tripDuration, rewardPoints);
+		Key previousKey = latestKeys.put(userId, key);
+		if (previousKey != null && !previousKey.equals(key)) {
+			cache.asMap().remove(previousKey);
+		}
+		AtomicBoolean priced = new AtomicBoolean();
+		Function<Key, CompletableFuture<List<Provider>>> price = k -> cache.get(k, (pricedKey, cacheExecutor) -> {
+			priced.set(true);
+			return CompletableFuture.supplyAsync(tripDealsLoader, executor);
+		});
+		CompletableFuture<List<Provider>> tripDeals = price.apply(key);
+		// the cache drops a failed pricing in a callback that may not have run yet, it is not handed out again
+		if (!priced.get() && tripDeals.isCompletedExceptionally()) {
+			cache.asMap().remove(key, tripDeals);
+			tripDeals = price.apply(key);
+		}
+		return tripDeals;
+	}
+
+	public double getHitRatio() {
+		return cache.synchronous().stats().hitRate();
+	}
+
+	public AsyncCache<?, ?> getCache() {
+		return cache;
+	}
+
+	private record Key(UUID userId, int adults, int children, int tripDuration, int rewardPoints) {
+	}
+}
@@ -0,0 +1,16 @@
+package com.openclassrooms.tourguide.sharding;
+
+import java.util.Set;
+
+/**
+ * Nodes of the application sharing the tracking of the users
+ */
+public interface ClusterMembership {
+
+	String getLocalNodeId();
+
+	/**
+	 * @return the ids of the live nodes, including the local one
+	 */
+	Set<String> getMembers();
+}
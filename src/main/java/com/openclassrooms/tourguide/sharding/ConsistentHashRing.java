@@ -0,0 +1,62 @@
+package com.openclassrooms.tourguide.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Hash ring placing each node at several points, a user belongs to the first node found
+ * clockwise from the hash of its id. Adding or removing a node only moves the users of its arcs.
+ */
+public class ConsistentHashRing {
+	private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+	public ConsistentHashRing(Collection<String> nodeIds, int virtualNodes) {
+		for (String nodeId : nodeIds) {
+			for (int i = 0; i < virtualNodes; i++) {
+				ring.put(hash(nodeId + "#" + i), nodeId);
+			}
+		}
+	}
+
+	/**
+	 * @return the id of the node owning the user, or null if the ring is empty
+	 */
+	public String getNode(UUID userId) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> owner = ring.ceilingEntry(hash(userId));
+		return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+	}
+
+	// the hashes have to be the same on every node, so they only depend on the ids
+	private static long hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xFF);
+			}
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long hash(UUID userId) {
+		// murmur3 finalizer, spreads the bits of the id over the whole ring
+		long hash = userId.getMostSignificantBits() ^ userId.getLeastSignificantBits();
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
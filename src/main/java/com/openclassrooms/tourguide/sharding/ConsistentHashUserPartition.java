@@ -0,0 +1,48 @@
+package com.openclassrooms.tourguide.sharding;
+
+import com.openclassrooms.tourguide.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+
+/**
+ * Partition of the users assigned to the local node by a consistent hash ring over the cluster members.
+ * A node only tracks the users of its store that it owns, so the nodes have to share the user store: with a store
+ * per node, like the in-memory repository, a user added on a node not owning it is tracked by no node.
+ */
+public class ConsistentHashUserPartition implements UserPartition {
+	private final Logger logger = LoggerFactory.getLogger(ConsistentHashUserPartition.class);
+	private final ClusterMembership membership;
+	private final int virtualNodes;
+	private volatile Set<String> members;
+	private volatile ConsistentHashRing ring;
+
+	public ConsistentHashUserPartition(ClusterMembership membership, int virtualNodes) {
+		this.membership = membership;
+		this.virtualNodes = virtualNodes;
+		refresh();
+	}
+
+	@Override
+	public boolean owns(User user) {
+		return membership.getLocalNodeId().equals(ring.getNode(user.getUserId()));
+	}
+
+	/**
+	 * Rebuilds the ring when nodes joined or left the cluster
+	 */
+	@Override
+	public synchronized void refresh() {
+		Set<String> currentMembers = membership.getMembers();
+		if (!currentMembers.equals(members)) {
+			if (!currentMembers.contains(membership.getLocalNodeId())) {
+				logger.warn("Node " + membership.getLocalNodeId() + " is not a member of " + currentMembers
+						+ ", it does not own any user");
+			}
+			ring = new ConsistentHashRing(currentMembers, virtualNodes);
+			members = currentMembers;
+			logger.info("Rebalanced users over " + currentMembers.size() + " nodes: " + currentMembers);
+		}
+	}
+}
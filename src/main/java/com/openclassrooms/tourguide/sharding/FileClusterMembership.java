@@ -0,0 +1,54 @@
+package com.openclassrooms.tourguide.sharding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Membership read from a file listing one node id per line, lines starting with # are ignored.
+ * The file is read again whenever it is modified.
+ */
+public class FileClusterMembership implements ClusterMembership {
+	private final Logger logger = LoggerFactory.getLogger(FileClusterMembership.class);
+	private final String localNodeId;
+	private final Path membersFile;
+	private FileTime lastModified;
+	private Set<String> members = Set.of();
+
+	public FileClusterMembership(String localNodeId, Path membersFile) {
+		this.localNodeId = localNodeId;
+		this.membersFile = membersFile;
+	}
+
+	@Override
+	public String getLocalNodeId() {
+		return localNodeId;
+	}
+
+	@Override
+	public synchronized Set<String> getMembers() {
+		try {
+			FileTime modified = Files.getLastModifiedTime(membersFile);
+			if (!modified.equals(lastModified)) {
+				Set<String> nodes = new LinkedHashSet<>();
+				for (String line : Files.readAllLines(membersFile)) {
+					String nodeId = line.trim();
+					if (!nodeId.isEmpty() && !nodeId.startsWith("#")) {
+						nodes.add(nodeId);
+					}
+				}
+				members = Set.copyOf(nodes);
+				lastModified = modified;
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read the cluster members from " + membersFile + ", keeping " + members);
+		}
+		return members;
+	}
+}
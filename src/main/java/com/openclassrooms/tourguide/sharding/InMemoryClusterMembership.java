@@ -0,0 +1,35 @@
+package com.openclassrooms.tourguide.sharding;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Membership maintained in memory, nodes join and leave through method calls
+ */
+public class InMemoryClusterMembership implements ClusterMembership {
+	private final String localNodeId;
+	private final Set<String> members = ConcurrentHashMap.newKeySet();
+
+	public InMemoryClusterMembership(String localNodeId) {
+		this.localNodeId = localNodeId;
+		members.add(localNodeId);
+	}
+
+	public void join(String nodeId) {
+		members.add(nodeId);
+	}
+
+	public void leave(String nodeId) {
+		members.remove(nodeId);
+	}
+
+	@Override
+	public String getLocalNodeId() {
+		return localNodeId;
+	}
+
+	@Override
+	public Set<String> getMembers() {
+		return Set.copyOf(members);
+	}
+}
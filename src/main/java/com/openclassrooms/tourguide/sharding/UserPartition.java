@@ -0,0 +1,22 @@
+package com.openclassrooms.tourguide.sharding;
+
+import com.openclassrooms.tourguide.user.User;
+
+/**
+ * Part of the users tracked and rewarded by this node
+ */
+public interface UserPartition {
+
+	/**
+	 * Partition of a single node owning every user
+	 */
+	UserPartition ALL = user -> true;
+
+	boolean owns(User user);
+
+	/**
+	 * Called before each tracking cycle so the partition can follow the membership changes
+	 */
+	default void refresh() {
+	}
+}
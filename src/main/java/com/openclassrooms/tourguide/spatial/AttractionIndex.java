@@ -0,0 +1,193 @@
+package com.openclassrooms.tourguide.spatial;
+
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable latitude/longitude grid over a list of attractions.
+ * Cells are sized from the search radius so a query only visits the few cells
+ * overlapping the bounding box of the radius around the searched location.
+ * The unit vectors of the attractions are computed once for the {@link DistanceStrategy#UNIT_VECTOR} strategy.
+ */
+public class AttractionIndex {
+	public static final double STATUTE_MILES_PER_DEGREE = 60 * 1.15077945;
+	private static final double MIN_CELL_DEGREES = 0.5;
+
+	private final List<Attraction> attractions;
+	private final double radiusMiles;
+	private final DistanceStrategy distanceStrategy;
+	private final double cellDegrees;
+	private final int latCells;
+	private final int lonCells;
+	// attraction positions in the list, by cell
+	private final Map<Integer, int[]> cells = new HashMap<>();
+	private final int[] allPositions;
+	// unit vectors of the attractions and cosine of the radius angle, read by the batch proximity engines
+	final double[] xs;
+	final double[] ys;
+	final double[] zs;
+	final double cosRadius;
+
+	public AttractionIndex(List<Attraction> attractions, double radiusMiles) {
+		this(attractions, radiusMiles, DistanceStrategy.UNIT_VECTOR);
+	}
+
+	public AttractionIndex(List<Attraction> attractions, double radiusMiles, DistanceStrategy distanceStrategy) {
+		this.attractions = Collections.unmodifiableList(new ArrayList<>(attractions));
+		this.radiusMiles = radiusMiles;
+		this.distanceStrategy = distanceStrategy;
+		this.cellDegrees = Math.max(MIN_CELL_DEGREES, Math.min(180, radiusMiles / STATUTE_MILES_PER_DEGREE));
+		this.latCells = (int) Math.ceil(180 / cellDegrees);
+		this.lonCells = (int) Math.ceil(360 / cellDegrees);
+		this.allPositions = IntStream.range(0, this.attractions.size()).toArray();
+		this.xs = new double[this.attractions.size()];
+		this.ys = new double[this.attractions.size()];
+		this.zs = new double[this.attractions.size()];
+		this.cosRadius = DistanceStrategy.cosineOfRadius(radiusMiles);
+
+		Map<Integer, List<Integer>> positionsByCell = new HashMap<>();
+		for (int position = 0; position < this.attractions.size(); position++) {
+			Attraction attraction = this.attractions.get(position);
+			int key = cellKey(latCell(attraction.latitude), lonCell(attraction.longitude));
+			positionsByCell.computeIfAbsent(key, k -> new ArrayList<>()).add(position);
+			double[] vector = DistanceStrategy.unitVector(attraction.latitude, attraction.longitude);
+			xs[position] = vector[0];
+			ys[position] = vector[1];
+			zs[position] = vector[2];
+		}
+		positionsByCell.forEach((key, positions) ->
+				cells.put(key, positions.stream().mapToInt(Integer::intValue).toArray()));
+	}
+
+	public List<Attraction> getAttractions() {
+		return attractions;
+	}
+
+	public double getRadiusMiles() {
+		return radiusMiles;
+	}
+
+	public DistanceStrategy getDistanceStrategy() {
+		return distanceStrategy;
+	}
+
+	/**
+	 * Returns the attractions which may be within the index radius of the location.
+	 * Candidates still have to be checked against the exact distance.
+	 */
+	public List<Attraction> candidates(Location location) {
+		return candidates(location.latitude, location.longitude);
+	}
+
+	public List<Attraction> candidates(double latitude, double longitude) {
+		int[] positions = candidatePositions(latitude, longitude);
+		if (positions == allPositions) {
+			return attractions;
+		}
+		List<Attraction> result = new ArrayList<>(positions.length);
+		for (int position : positions) {
+			result.add(attractions.get(position));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the attractions within the index radius of the location, according to the distance strategy
+	 */
+	public List<Attraction> within(double latitude, double longitude) {
+		int[] positions = candidatePositions(latitude, longitude);
+		List<Attraction> result = new ArrayList<>();
+		if (distanceStrategy == DistanceStrategy.UNIT_VECTOR) {
+			double lat = Math.toRadians(latitude);
+			double lon = Math.toRadians(longitude);
+			double cosLat = Math.cos(lat);
+			double x = cosLat * Math.cos(lon);
+			double y = cosLat * Math.sin(lon);
+			double z = Math.sin(lat);
+			for (int position : positions) {
+				if (x * xs[position] + y * ys[position] + z * zs[position] >= cosRadius) {
+					result.add(attractions.get(position));
+				}
+			}
+		} else {
+			for (int position : positions) {
+				Attraction attraction = attractions.get(position);
+				if (distanceStrategy.distance(attraction.latitude, attraction.longitude, latitude, longitude) <= radiusMiles) {
+					result.add(attraction);
+				}
+			}
+		}
+		return result;
+	}
+
+	private int[] candidatePositions(double latitude, double longitude) {
+		double radiusDegrees = radiusMiles / STATUTE_MILES_PER_DEGREE;
+		if (radiusDegrees >= 90) {
+			return allPositions;
+		}
+
+		double minLat = latitude - radiusDegrees;
+		double maxLat = latitude + radiusDegrees;
+		if (minLat <= -90 || maxLat >= 90) {
+			// the search cap contains a pole, every longitude is in range
+			return scan(latCell(minLat), latCell(maxLat), 0, lonCells - 1);
+		}
+
+		double sinRadius = Math.sin(Math.toRadians(radiusDegrees));
+		double cosLat = Math.cos(Math.toRadians(latitude));
+		if (sinRadius >= cosLat) {
+			return scan(latCell(minLat), latCell(maxLat), 0, lonCells - 1);
+		}
+		double deltaLon = Math.toDegrees(Math.asin(sinRadius / cosLat));
+		int fromLon = lonCell(longitude - deltaLon);
+		int toLon = lonCell(longitude + deltaLon);
+		if (toLon < fromLon) {
+			// the box crosses the antimeridian
+			toLon += lonCells;
+		}
+		return scan(latCell(minLat), latCell(maxLat), fromLon, Math.min(toLon, fromLon + lonCells - 1));
+	}
+
+	private int[] scan(int fromLat, int toLat, int fromLon, int toLon) {
+		if ((long) (toLat - fromLat + 1) * (toLon - fromLon + 1) >= cells.size()) {
+			return allPositions;
+		}
+		int[] result = new int[8];
+		int size = 0;
+		for (int lat = fromLat; lat <= toLat; lat++) {
+			for (int lon = fromLon; lon <= toLon; lon++) {
+				int[] cell = cells.get(cellKey(lat, lon % lonCells));
+				if (cell != null) {
+					if (size + cell.length > result.length) {
+						result = Arrays.copyOf(result, Math.max(2 * result.length, size + cell.length));
+					}
+					System.arraycopy(cell, 0, result, size, cell.length);
+					size += cell.length;
+				}
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private int latCell(double latitude) {
+		double clamped = Math.max(-90, Math.min(90, latitude));
+		return Math.min(latCells - 1, (int) Math.floor((clamped + 90) / cellDegrees));
+	}
+
+	private int lonCell(double longitude) {
+		double normalized = ((longitude + 180) % 360 + 360) % 360;
+		return Math.min(lonCells - 1, (int) Math.floor(normalized / cellDegrees));
+	}
+
+	private int cellKey(int latCell, int lonCell) {
+		return latCell * lonCells + lonCell;
+	}
+}
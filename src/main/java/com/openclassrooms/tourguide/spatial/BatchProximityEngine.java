@@ -0,0 +1,38 @@
+package com.openclassrooms.tourguide.spatial;
+
+import gpsUtil.location.Attraction;
+
+/**
+ * Finds the attractions within the radius of an {@link AttractionIndex} for a whole batch of locations.
+ * Every attraction is tested against every location, which suits catalogs of a few hundred attractions.
+ */
+public interface BatchProximityEngine {
+
+	@FunctionalInterface
+	interface ProximityConsumer {
+		void accept(int location, Attraction attraction);
+	}
+
+	/**
+	 * Calls the consumer for each location and attraction within the radius of the index,
+	 * attraction by attraction and in the order of the batch for an attraction
+	 */
+	void forEachWithin(AttractionIndex index, LocationBatch locations, ProximityConsumer consumer);
+
+	static BatchProximityEngine scalar() {
+		return new ScalarBatchProximityEngine();
+	}
+
+	/**
+	 * @return the Vector API engine, null when it is not built in or the jdk.incubator.vector module is not available
+	 */
+	static BatchProximityEngine vectorized() {
+		// looked up by reflection since the engine is only compiled with the vector profile
+		try {
+			return (BatchProximityEngine) Class.forName(BatchProximityEngine.class.getPackageName()
+					+ ".VectorBatchProximityEngine").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.openclassrooms.tourguide.spatial;
+
+/**
+ * Latitude/longitude rectangle, bounds included.
+ * A minimum longitude greater than the maximum one describes a box crossing the antimeridian.
+ */
+public record BoundingBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+
+	public boolean contains(double latitude, double longitude) {
+		if (latitude < minLatitude || latitude > maxLatitude) {
+			return false;
+		}
+		if (minLongitude <= maxLongitude) {
+			return longitude >= minLongitude && longitude <= maxLongitude;
+		}
+		return longitude >= minLongitude || longitude <= maxLongitude;
+	}
+}
@@ -0,0 +1,74 @@
+package com.openclassrooms.tourguide.spatial;
+
+/**
+ * Ways to compute the great-circle distance between two points, in statute miles.
+ * The proximity of a location to the attractions of an {@link AttractionIndex} is tested with the same strategy.
+ */
+public enum DistanceStrategy {
+	/**
+	 * Spherical law of cosines, loses precision for distances under a few miles
+	 */
+	LAW_OF_COSINES {
+		@Override
+		public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+			double lat1 = Math.toRadians(latitude1);
+			double lat2 = Math.toRadians(latitude2);
+			double cosAngle = Math.sin(lat1) * Math.sin(lat2)
+					+ Math.cos(lat1) * Math.cos(lat2) * Math.cos(Math.toRadians(longitude1 - longitude2));
+			return toMiles(Math.acos(clamp(cosAngle)));
+		}
+	},
+	/**
+	 * Haversine formula, accurate at small distances
+	 */
+	HAVERSINE {
+		@Override
+		public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+			double sinHalfLat = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+			double sinHalfLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+			double h = sinHalfLat * sinHalfLat
+					+ Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinHalfLon * sinHalfLon;
+			return toMiles(2 * Math.asin(Math.sqrt(Math.min(1, h))));
+		}
+	},
+	/**
+	 * Dot product of unit vectors: the attraction vectors are computed once by the index and a location
+	 * is within the radius when the dot product is above the cosine of the radius angle, without any acos
+	 */
+	UNIT_VECTOR {
+		// the dot product of two unit vectors is the cosine given by the law of cosines
+		@Override
+		public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+			return LAW_OF_COSINES.distance(latitude1, longitude1, latitude2, longitude2);
+		}
+	};
+
+	public abstract double distance(double latitude1, double longitude1, double latitude2, double longitude2);
+
+	/**
+	 * @return the x, y and z coordinates of the point on the unit sphere
+	 */
+	public static double[] unitVector(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		return new double[] {cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat)};
+	}
+
+	/**
+	 * @return the cosine of the angle between two points distant of radiusMiles, -1 when the radius covers the sphere
+	 */
+	public static double cosineOfRadius(double radiusMiles) {
+		double angle = Math.toRadians(radiusMiles / AttractionIndex.STATUTE_MILES_PER_DEGREE);
+		return angle >= Math.PI ? -1 : Math.cos(angle);
+	}
+
+	private static double toMiles(double angle) {
+		return Math.toDegrees(angle) * AttractionIndex.STATUTE_MILES_PER_DEGREE;
+	}
+
+	// rounding can take the cosine slightly out of [-1, 1], where acos is NaN
+	private static double clamp(double cosAngle) {
+		return Math.max(-1, Math.min(1, cosAngle));
+	}
+}
@@ -0,0 +1,73 @@
+package com.openclassrooms.tourguide.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Growable batch of locations in primitive columns, with the unit vector of each location computed when it is added.
+ * Each location carries an owner, the position of its owner in a list kept by the caller.
+ */
+public class LocationBatch {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int size;
+	private int[] owners = new int[INITIAL_CAPACITY];
+	private double[] latitudes = new double[INITIAL_CAPACITY];
+	private double[] longitudes = new double[INITIAL_CAPACITY];
+	private long[] times = new long[INITIAL_CAPACITY];
+	// unit vectors, read by the batch proximity engines
+	double[] xs = new double[INITIAL_CAPACITY];
+	double[] ys = new double[INITIAL_CAPACITY];
+	double[] zs = new double[INITIAL_CAPACITY];
+
+	public void add(int owner, double latitude, double longitude, long timeMillis) {
+		if (size == latitudes.length) {
+			grow();
+		}
+		owners[size] = owner;
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		times[size] = timeMillis;
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		xs[size] = cosLat * Math.cos(lon);
+		ys[size] = cosLat * Math.sin(lon);
+		zs[size] = Math.sin(lat);
+		size++;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getOwner(int location) {
+		return owners[location];
+	}
+
+	public double getLatitude(int location) {
+		return latitudes[location];
+	}
+
+	public double getLongitude(int location) {
+		return longitudes[location];
+	}
+
+	public long getTimeMillis(int location) {
+		return times[location];
+	}
+
+	private void grow() {
+		int capacity = 2 * latitudes.length;
+		owners = Arrays.copyOf(owners, capacity);
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		times = Arrays.copyOf(times, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+	}
+}
@@ -0,0 +1,18 @@
+package com.openclassrooms.tourguide.spatial;
+
+public enum ProximityMode {
+	/**
+	 * Each location is looked up in the attraction index grid, with the distance strategy
+	 */
+	INDEX,
+	/**
+	 * The new locations of the users are tested by batches against every attraction, comparing the dot product
+	 * of the unit vectors to the cosine of the radius whatever the distance strategy
+	 */
+	SCALAR_BATCH,
+	/**
+	 * Batches tested with SIMD lanes of the Vector API. Requires the application to be built with the vector profile
+	 * and run with --add-modules jdk.incubator.vector, the scalar batch is used otherwise.
+	 */
+	VECTOR_BATCH
+}
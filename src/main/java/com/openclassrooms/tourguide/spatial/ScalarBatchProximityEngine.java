@@ -0,0 +1,27 @@
+package com.openclassrooms.tourguide.spatial;
+
+import gpsUtil.location.Attraction;
+
+import java.util.List;
+
+class ScalarBatchProximityEngine implements BatchProximityEngine {
+
+	@Override
+	public void forEachWithin(AttractionIndex index, LocationBatch locations, ProximityConsumer consumer) {
+		List<Attraction> attractions = index.getAttractions();
+		double[] xs = locations.xs;
+		double[] ys = locations.ys;
+		double[] zs = locations.zs;
+		int size = locations.size();
+		for (int position = 0; position < attractions.size(); position++) {
+			double x = index.xs[position];
+			double y = index.ys[position];
+			double z = index.zs[position];
+			for (int location = 0; location < size; location++) {
+				if (xs[location] * x + ys[location] * y + zs[location] * z >= index.cosRadius) {
+					consumer.accept(location, attractions.get(position));
+				}
+			}
+		}
+	}
+}
@@ -1,60 +1,92 @@
 package com.openclassrooms.tourguide.tracker;
 
+import com.openclassrooms.tourguide.config.TourGuideProperties;
 import com.openclassrooms.tourguide.service.TourGuideService;
 import com.openclassrooms.tourguide.user.User;
 import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class Tracker extends Thread {
+public class Tracker implements Runnable {
 	private Logger logger = LoggerFactory.getLogger(Tracker.class);
-	private static final long trackingPollingInterval = TimeUnit.MINUTES.toSeconds(5);
-	private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 	private final TourGuideService tourGuideService;
-	private boolean stop = false;
+	private final Duration maxCycleDuration;
 
 	public Tracker(TourGuideService tourGuideService) {
+		this(tourGuideService, new TourGuideProperties.Tracking());
+	}
+
+	/**
+	 * Schedules the tracking cycles. The scheduler has a single thread so cycles never overlap.
+	 */
+	public Tracker(TourGuideService tourGuideService, TourGuideProperties.Tracking settings) {
 		this.tourGuideService = tourGuideService;
+		this.maxCycleDuration = settings.getMaxCycleDuration();
 
-		executorService.submit(this);
+		long initialDelay = settings.getInitialDelay().toMillis();
+		long pollingInterval = settings.getPollingInterval().toMillis();
+		if (settings.getSchedule() == TrackingSchedule.FIXED_RATE) {
+			scheduler.scheduleAtFixedRate(this, initialDelay, pollingInterval, TimeUnit.MILLISECONDS);
+		} else {
+			scheduler.scheduleWithFixedDelay(this, initialDelay, pollingInterval, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/**
 	 * Assures to shut down the Tracker thread
 	 */
 	public void stopTracking() {
-		stop = true;
-		executorService.shutdownNow();
+		scheduler.shutdownNow();
 	}
 
+	/**
+	 * Runs a tracking cycle and waits for it to complete. The users not tracked within
+	 * the maximum cycle duration are shed so that a slow cycle does not delay the next ones.
+	 */
 	@Override
 	public void run() {
 		StopWatch stopWatch = new StopWatch();
-		while (true) {
-			if (Thread.currentThread().isInterrupted() || stop) {
-				logger.debug("Tracker stopping");
-				break;
+		try {
+			Collection<User> users = tourGuideService.getLocalUsers();
+			// counting the users of a partition filters every user of the repository
+			if (logger.isDebugEnabled()) {
+				logger.debug("Begin Tracker. Tracking " + users.size() + " users.");
 			}
-
-			List<User> users = tourGuideService.getAllUsers();
-			logger.debug("Begin Tracker. Tracking " + users.size() + " users.");
 			stopWatch.start();
-			users.forEach(u -> tourGuideService.trackUserLocation(u));
+			long deadline = System.nanoTime() + maxCycleDuration.toNanos();
+			CompletableFuture<Void> tracked = tourGuideService.trackUsers(users, maxCycleDuration);
+			// submitting the batches may already have taken part of the cycle
+			tracked.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
 			stopWatch.stop();
 			logger.debug("Tracker Time Elapsed: " + TimeUnit.MILLISECONDS.toSeconds(stopWatch.getTime()) + " seconds.");
-			stopWatch.reset();
-			try {
-				logger.debug("Tracker sleeping");
-				TimeUnit.SECONDS.sleep(trackingPollingInterval);
-			} catch (InterruptedException e) {
-				break;
+			tourGuideService.compactUserStateJournal();
+		} catch (InterruptedException e) {
+			logger.debug("Tracker stopping");
+			Thread.currentThread().interrupt();
+		} catch (TimeoutException e) {
+			logger.warn("Tracking cycle did not complete within " + maxCycleDuration.toSeconds()
+					+ " seconds, the remaining users are shed");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InterruptedException) {
+				// stopped while waiting for room in the tracking pipeline
+				logger.debug("Tracker stopping");
+				Thread.currentThread().interrupt();
+			} else {
+				logger.error("Tracking cycle failed", e);
 			}
+		} catch (RuntimeException e) {
+			// an exception would cancel the next cycles
+			logger.error("Tracking cycle failed", e);
 		}
-
 	}
 }
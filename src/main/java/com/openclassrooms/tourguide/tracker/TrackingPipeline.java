@@ -0,0 +1,148 @@
+package com.openclassrooms.tourguide.tracker;
+
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
+import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.user.User;
+import gpsUtil.GpsUtil;
+import gpsUtil.location.VisitedLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks users by batches: a worker fetches the location of every user of a batch,
+ * then the rewards of the batch are calculated in a second stage.
+ * The number of batches in flight is bounded, submitting a batch blocks while the limit is reached,
+ * at most until the deadline of the tracking.
+ */
+public class TrackingPipeline {
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+	private final Logger logger = LoggerFactory.getLogger(TrackingPipeline.class);
+	private final GpsUtil gpsUtil;
+	private final RewardsService rewardsService;
+	private final ExecutorService executorService;
+	private final int batchSize;
+	private final Semaphore inFlightBatches;
+	private final UserStateJournal userStateJournal;
+
+	public TrackingPipeline(GpsUtil gpsUtil, RewardsService rewardsService, ExecutorService executorService,
+			int batchSize, int maxInFlightBatches, UserStateJournal userStateJournal) {
+		this.gpsUtil = gpsUtil;
+		this.rewardsService = rewardsService;
+		this.executorService = executorService;
+		this.batchSize = batchSize;
+		this.inFlightBatches = new Semaphore(maxInFlightBatches);
+		this.userStateJournal = userStateJournal;
+	}
+
+	/**
+	 * Submits the users by batches and returns a future completed when every batch is tracked
+	 */
+	public CompletableFuture<Void> track(Collection<User> users) {
+		return track(users, NO_DEADLINE);
+	}
+
+	/**
+	 * Same as {@link #track(Collection)}, but the users not located yet once maxDuration has elapsed are shed:
+	 * no more batches are submitted and the running batches stop fetching locations.
+	 */
+	public CompletableFuture<Void> track(Collection<User> users, Duration maxDuration) {
+		return track(users, System.nanoTime() + maxDuration.toNanos());
+	}
+
+	private CompletableFuture<Void> track(Collection<User> users, long deadline) {
+		List<CompletableFuture<Void>> batches = new ArrayList<>();
+		int submitted = 0;
+		boolean shed = false;
+		Iterator<User> iterator = users.iterator();
+		try {
+			while (iterator.hasNext() && !isPast(deadline)) {
+				List<User> batch = nextBatch(iterator);
+				CompletableFuture<Void> tracked = submit(batch, deadline);
+				if (tracked == null) {
+					shed = true;
+					break;
+				}
+				batches.add(tracked);
+				submitted += batch.size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			batches.forEach(future -> future.cancel(true));
+			return CompletableFuture.failedFuture(e);
+		}
+		// the users left in the iterator tell the ones shed, a filtered view is not counted again
+		if (shed || iterator.hasNext()) {
+			logger.warn("Tracking deadline reached after submitting " + submitted + " users, the others are shed");
+		}
+		return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]));
+	}
+
+	private List<User> nextBatch(Iterator<User> iterator) {
+		List<User> batch = new ArrayList<>(batchSize);
+		while (iterator.hasNext() && batch.size() < batchSize) {
+			batch.add(iterator.next());
+		}
+		return batch;
+	}
+
+	/**
+	 * @return the future of the batch, or null if no batch completed before the deadline to make room for it
+	 */
+	private CompletableFuture<Void> submit(List<User> batch, long deadline) throws InterruptedException {
+		if (deadline == NO_DEADLINE) {
+			inFlightBatches.acquire();
+		} else if (!inFlightBatches.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+			return null;
+		}
+		long start = System.nanoTime();
+		try {
+			return CompletableFuture.supplyAsync(() -> fetchLocations(batch, deadline), executorService)
+					.thenComposeAsync(this::calculateRewards, executorService)
+					.whenComplete((result, throwable) -> {
+						inFlightBatches.release();
+						logger.debug("Tracked batch of " + batch.size() + " users in "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+					});
+		} catch (RuntimeException e) {
+			inFlightBatches.release();
+			throw e;
+		}
+	}
+
+	private List<User> fetchLocations(List<User> batch, long deadline) {
+		List<User> located = new ArrayList<>(batch.size());
+		for (User user : batch) {
+			if (isPast(deadline)) {
+				logger.debug("Tracking deadline reached, shedding " + (batch.size() - located.size()) + " users of the batch");
+				break;
+			}
+			try {
+				VisitedLocation visitedLocation = gpsUtil.getUserLocation(user.getUserId());
+				user.addToVisitedLocations(visitedLocation);
+				userStateJournal.appendVisitedLocation(user, visitedLocation);
+				located.add(user);
+			} catch (RuntimeException e) {
+				logger.warn("Could not get the location of user " + user.getUserName() + ": " + e.getMessage());
+			}
+		}
+		return located;
+	}
+
+	private static boolean isPast(long deadline) {
+		return deadline != NO_DEADLINE && System.nanoTime() - deadline > 0;
+	}
+
+	private CompletableFuture<Void> calculateRewards(List<User> located) {
+		return rewardsService.calculateRewards(located);
+	}
+}
@@ -0,0 +1,12 @@
+package com.openclassrooms.tourguide.tracker;
+
+public enum TrackingSchedule {
+	/**
+	 * The polling interval is the delay between the end of a cycle and the start of the next one
+	 */
+	FIXED_DELAY,
+	/**
+	 * Cycles start every polling interval, a late cycle starts as soon as the previous one ends
+	 */
+	FIXED_RATE
+}
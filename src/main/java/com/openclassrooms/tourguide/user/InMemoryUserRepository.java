@@ -0,0 +1,44 @@
+package com.openclassrooms.tourguide.user;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Users stored in memory, indexed by user name and by user id
+ */
+public class InMemoryUserRepository implements UserRepository {
+	private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+	private final Map<UUID, User> usersById = new ConcurrentHashMap<>();
+
+	@Override
+	public User putIfAbsent(User user) {
+		User existing = usersByName.putIfAbsent(user.getUserName(), user);
+		if (existing == null) {
+			usersById.put(user.getUserId(), user);
+		}
+		return existing;
+	}
+
+	@Override
+	public User findByUserName(String userName) {
+		return usersByName.get(userName);
+	}
+
+	@Override
+	public User findByUserId(UUID userId) {
+		return usersById.get(userId);
+	}
+
+	@Override
+	public Collection<User> findAll() {
+		return Collections.unmodifiableCollection(usersByName.values());
+	}
+
+	@Override
+	public int count() {
+		return usersByName.size();
+	}
+}
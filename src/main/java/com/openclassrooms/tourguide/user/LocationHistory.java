@@ -0,0 +1,285 @@
+package com.openclassrooms.tourguide.user;
+
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * Bounded history of the locations visited by a user, stored in primitive columns.
+ * Every location gets a sequence number; the oldest ones are evicted once the history holds maxLocations
+ * locations or when they are older than maxAge compared to the latest one, and handed to the spill listener.
+ * <p>
+ * The columns are split in chunks which are written once and never reused: evicting a chunk replaces it by a new one.
+ * Writers are serialized, readers take a {@link Snapshot} without locking, made of the published sequence range
+ * and of the chunks holding it, so they always see a consistent prefix of the history.
+ */
+public class LocationHistory {
+	public static final int DEFAULT_MAX_LOCATIONS = 1000;
+	static final int CHUNK_SIZE = 32;
+
+	/**
+	 * Receives the locations evicted from the history, for example to keep them in a storage
+	 */
+	@FunctionalInterface
+	public interface SpillListener {
+		SpillListener NONE = (latitude, longitude, timeMillis) -> {
+		};
+
+		void spill(double latitude, double longitude, long timeMillis);
+	}
+
+	@FunctionalInterface
+	public interface LocationVisitor {
+		void visit(long sequence, double latitude, double longitude, long timeMillis);
+	}
+
+	private static final class Chunk {
+		final long firstSequence;
+		final double[] latitudes = new double[CHUNK_SIZE];
+		final double[] longitudes = new double[CHUNK_SIZE];
+		final long[] times = new long[CHUNK_SIZE];
+
+		Chunk(long firstSequence) {
+			this.firstSequence = firstSequence;
+		}
+	}
+
+	private final int maxLocations;
+	private final long maxAgeMillis;
+	private final SpillListener spillListener;
+	// ring of the chunks holding the kept locations, the chunk of a sequence is at (sequence / CHUNK_SIZE) % length
+	private final Chunk[] chunks;
+	// sequence of the oldest location kept and of the next location added, written after the columns
+	private volatile long startSequence;
+	private volatile long endSequence;
+
+	public LocationHistory() {
+		this(DEFAULT_MAX_LOCATIONS, null, SpillListener.NONE);
+	}
+
+	/**
+	 * @param maxAge locations older than this compared to the latest one are evicted, null to keep them
+	 */
+	public LocationHistory(int maxLocations, Duration maxAge, SpillListener spillListener) {
+		if (maxLocations <= 0) {
+			throw new IllegalArgumentException("maxLocations must be positive: " + maxLocations);
+		}
+		this.maxLocations = maxLocations;
+		this.maxAgeMillis = maxAge == null ? Long.MAX_VALUE : maxAge.toMillis();
+		this.spillListener = spillListener;
+		// the kept locations may start in the middle of a chunk and end in the middle of another one
+		this.chunks = new Chunk[(maxLocations + CHUNK_SIZE - 1) / CHUNK_SIZE + 1];
+	}
+
+	public synchronized void add(double latitude, double longitude, long timeMillis) {
+		long sequence = endSequence;
+		if (sequence - startSequence == maxLocations) {
+			evictOldest();
+		}
+		Chunk chunk = chunks[chunkSlot(sequence)];
+		if (chunk == null || chunk.firstSequence != sequence - offset(sequence)) {
+			// the chunk in the slot only holds evicted locations, readers may still use it from their snapshot
+			chunk = new Chunk(sequence - offset(sequence));
+			chunks[chunkSlot(sequence)] = chunk;
+		}
+		int offset = offset(sequence);
+		chunk.latitudes[offset] = latitude;
+		chunk.longitudes[offset] = longitude;
+		chunk.times[offset] = timeMillis;
+		endSequence = sequence + 1;
+		while (maxAgeMillis != Long.MAX_VALUE && timeMillis - timeAt(startSequence) > maxAgeMillis) {
+			evictOldest();
+		}
+	}
+
+	public synchronized void clear() {
+		startSequence = endSequence;
+	}
+
+	public int size() {
+		return snapshot().size();
+	}
+
+	public long getStartSequence() {
+		return startSequence;
+	}
+
+	public long getEndSequence() {
+		return endSequence;
+	}
+
+	/**
+	 * Visits the locations kept from fromSequence (inclusive) to toSequence (exclusive), oldest first
+	 */
+	public void forEach(long fromSequence, long toSequence, LocationVisitor visitor) {
+		snapshot().forEach(fromSequence, toSequence, visitor);
+	}
+
+	/**
+	 * @throws NoSuchElementException if the history is empty
+	 */
+	public VisitedLocation getLast(UUID userId) {
+		return last(userId).orElseThrow(() -> new NoSuchElementException("No visited location"));
+	}
+
+	/**
+	 * @return the last visited location, read from a single snapshot so a concurrent clear cannot empty it meanwhile
+	 */
+	public Optional<VisitedLocation> last(UUID userId) {
+		Snapshot snapshot = snapshot();
+		if (snapshot.isEmpty()) {
+			return Optional.empty();
+		}
+		return Optional.of(snapshot.toVisitedLocations(userId).get(snapshot.size() - 1));
+	}
+
+	/**
+	 * @return a read-only view of the visited locations kept when called, oldest first
+	 */
+	public List<VisitedLocation> toVisitedLocations(UUID userId) {
+		return snapshot().toVisitedLocations(userId);
+	}
+
+	/**
+	 * Takes a view of the locations currently kept, which later additions and evictions do not change
+	 */
+	public Snapshot snapshot() {
+		long start = startSequence;
+		// the chunks holding the locations before the end read are visible
+		long end = endSequence;
+		Chunk[] snapshotChunks = chunks.clone();
+		// a chunk replaced since the sequences were read only held locations evicted meanwhile,
+		// and so did every chunk before it
+		for (long chunkStart = start - offset(start); chunkStart < end; chunkStart += CHUNK_SIZE) {
+			Chunk chunk = snapshotChunks[chunkSlot(chunkStart)];
+			if (chunk == null || chunk.firstSequence != chunkStart) {
+				start = chunkStart + CHUNK_SIZE;
+			}
+		}
+		return new Snapshot(snapshotChunks, Math.min(start, end), end);
+	}
+
+	/**
+	 * Immutable view of a range of the history
+	 */
+	public static final class Snapshot {
+		private final Chunk[] chunks;
+		private final long startSequence;
+		private final long endSequence;
+
+		private Snapshot(Chunk[] chunks, long startSequence, long endSequence) {
+			this.chunks = chunks;
+			this.startSequence = startSequence;
+			this.endSequence = endSequence;
+		}
+
+		public long getStartSequence() {
+			return startSequence;
+		}
+
+		public long getEndSequence() {
+			return endSequence;
+		}
+
+		public int size() {
+			return (int) (endSequence - startSequence);
+		}
+
+		public boolean isEmpty() {
+			return endSequence == startSequence;
+		}
+
+		public void forEach(long fromSequence, long toSequence, LocationVisitor visitor) {
+			long to = Math.min(toSequence, endSequence);
+			for (long sequence = Math.max(fromSequence, startSequence); sequence < to; sequence++) {
+				Chunk chunk = chunk(sequence);
+				int offset = (int) (sequence - chunk.firstSequence);
+				visitor.visit(sequence, chunk.latitudes[offset], chunk.longitudes[offset], chunk.times[offset]);
+			}
+		}
+
+		public double getLatitude(long sequence) {
+			return chunk(checkSequence(sequence)).latitudes[(int) (sequence % CHUNK_SIZE)];
+		}
+
+		public double getLongitude(long sequence) {
+			return chunk(checkSequence(sequence)).longitudes[(int) (sequence % CHUNK_SIZE)];
+		}
+
+		public long getTimeMillis(long sequence) {
+			return chunk(checkSequence(sequence)).times[(int) (sequence % CHUNK_SIZE)];
+		}
+
+		private long checkSequence(long sequence) {
+			if (sequence < startSequence || sequence >= endSequence) {
+				throw new IndexOutOfBoundsException("Sequence " + sequence + " out of range [" + startSequence
+						+ ", " + endSequence + ")");
+			}
+			return sequence;
+		}
+
+		/**
+		 * @return a list creating the VisitedLocation of an element when it is read
+		 */
+		public List<VisitedLocation> toVisitedLocations(UUID userId) {
+			return new VisitedLocationList(userId);
+		}
+
+		private Chunk chunk(long sequence) {
+			return chunks[(int) ((sequence / CHUNK_SIZE) % chunks.length)];
+		}
+
+		private final class VisitedLocationList extends AbstractList<VisitedLocation> implements RandomAccess {
+			private final UUID userId;
+
+			private VisitedLocationList(UUID userId) {
+				this.userId = userId;
+			}
+
+			@Override
+			public VisitedLocation get(int index) {
+				if (index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+				}
+				long sequence = startSequence + index;
+				Chunk chunk = chunk(sequence);
+				int offset = (int) (sequence - chunk.firstSequence);
+				return new VisitedLocation(userId, new Location(chunk.latitudes[offset], chunk.longitudes[offset]),
+						new Date(chunk.times[offset]));
+			}
+
+			@Override
+			public int size() {
+				return Snapshot.this.size();
+			}
+		}
+	}
+
+	private void evictOldest() {
+		long sequence = startSequence;
+		Chunk chunk = chunks[chunkSlot(sequence)];
+		int offset = offset(sequence);
+		startSequence = sequence + 1;
+		spillListener.spill(chunk.latitudes[offset], chunk.longitudes[offset], chunk.times[offset]);
+	}
+
+	private long timeAt(long sequence) {
+		return chunks[chunkSlot(sequence)].times[offset(sequence)];
+	}
+
+	private int chunkSlot(long sequence) {
+		return (int) ((sequence / CHUNK_SIZE) % chunks.length);
+	}
+
+	private static int offset(long sequence) {
+		return (int) (sequence % CHUNK_SIZE);
+	}
+}
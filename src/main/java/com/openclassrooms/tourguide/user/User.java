@@ -3,11 +3,22 @@ package com.openclassrooms.tourguide.user;
 import gpsUtil.location.VisitedLocation;
 import tripPricer.Provider;
 
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 public class User {
 	private final UUID userId;
@@ -15,12 +26,27 @@ public class User {
 	private String phoneNumber;
 	private String emailAddress;
 	private Date latestLocationTimestamp;
-	private List<VisitedLocation> visitedLocations = new ArrayList<>();
-	private List<UserReward> userRewards = new CopyOnWriteArrayList<>();
+	private final LocationHistory locationHistory;
+	// rewards indexed by attraction name for deduplication, the queue keeps the insertion order
+	private final Map<String, UserReward> userRewardsByAttraction = new ConcurrentHashMap<>();
+	private final Queue<UserReward> userRewards = new ConcurrentLinkedQueue<>();
+	// attractions already rewarded or whose reward points are being fetched
+	private final Set<String> claimedRewards = ConcurrentHashMap.newKeySet();
+	// running reward points total, and its breakdown by month of the rewarded visit
+	private final LongAdder totalRewardPoints = new LongAdder();
+	private final Map<YearMonth, LongAdder> rewardPointsByMonth = new ConcurrentHashMap<>();
 	private UserPreferences userPreferences = new UserPreferences();
 	private List<Provider> tripDeals = new ArrayList<>();
+	private long rewardedSequence;
+	private int rewardsGeneration;
 	public User(UUID userId, String userName, String phoneNumber, String emailAddress) {
+		this(userId, userName, phoneNumber, emailAddress, new LocationHistory());
+	}
+
+	public User(UUID userId, String userName, String phoneNumber, String emailAddress,
+			LocationHistory locationHistory) {
 		this.userId = userId;
+		this.locationHistory = locationHistory;
 		this.userName = userName;
 		this.phoneNumber = phoneNumber;
 		this.emailAddress = emailAddress;
@@ -59,27 +85,123 @@ public class User {
 	}
 	
 	public void addToVisitedLocations(VisitedLocation visitedLocation) {
-		visitedLocations.add(visitedLocation);
+		locationHistory.add(visitedLocation.location.latitude, visitedLocation.location.longitude,
+				visitedLocation.timeVisited.getTime());
 	}
 	
+	/**
+	 * @return a read-only snapshot of the visited locations kept in the history, oldest first
+	 */
 	public List<VisitedLocation> getVisitedLocations() {
-		return visitedLocations;
+		return locationHistory.toVisitedLocations(userId);
+	}
+
+	public LocationHistory getLocationHistory() {
+		return locationHistory;
 	}
 	
 	public void clearVisitedLocations() {
-		visitedLocations.clear();
+		locationHistory.clear();
+		resetRewardedLocations();
+	}
+
+	/**
+	 * Marks the visited locations before endSequence as processed by the rewards calculation
+	 * and returns the sequence of the first location that was not processed yet.
+	 * A generation different from the previous call means every location has to be processed again.
+	 */
+	public synchronized long markLocationsRewarded(int generation, long endSequence) {
+		long fromSequence = generation == rewardsGeneration ? Math.min(rewardedSequence, endSequence) : 0;
+		rewardsGeneration = generation;
+		rewardedSequence = Math.max(fromSequence, endSequence);
+		return fromSequence;
+	}
+
+	/**
+	 * Moves the mark back to fromSequence so the next calculation processes these locations again.
+	 * If the generation changed meanwhile, the calculations of the new generation may have skipped the locations
+	 * while their reward was still claimed, so the whole history is processed again.
+	 */
+	public synchronized void unmarkLocationsRewarded(int generation, long fromSequence) {
+		rewardedSequence = generation == rewardsGeneration ? Math.min(rewardedSequence, fromSequence) : 0;
+	}
+
+	public synchronized void resetRewardedLocations() {
+		rewardedSequence = 0;
 	}
 	
-	public void addUserReward(UserReward userReward) {
-		if(userRewards.stream().noneMatch(r -> r.attraction.attractionName.equals(userReward.attraction.attractionName))) {
+	/**
+	 * Adds the reward unless the user already has one for the same attraction
+	 * @return true if the reward was added
+	 */
+	public boolean addUserReward(UserReward userReward) {
+		if (userRewardsByAttraction.putIfAbsent(userReward.attraction.attractionName, userReward) == null) {
+			claimedRewards.add(userReward.attraction.attractionName);
 			userRewards.add(userReward);
+			int rewardPoints = userReward.getRewardPoints();
+			totalRewardPoints.add(rewardPoints);
+			YearMonth month = YearMonth.from(userReward.visitedLocation.timeVisited.toInstant().atZone(ZoneOffset.UTC));
+			rewardPointsByMonth.computeIfAbsent(month, m -> new LongAdder()).add(rewardPoints);
+			return true;
 		}
+		return false;
 	}
-	
-	public List<UserReward> getUserRewards() {
-		return userRewards;
+
+	/**
+	 * Atomically reserves the reward of an attraction before its points are fetched,
+	 * so that only one caller looks them up.
+	 * @return false if the attraction is already rewarded or claimed
+	 */
+	public boolean claimReward(String attractionName) {
+		return claimedRewards.add(attractionName);
+	}
+
+	/**
+	 * Gives back a claim whose reward could not be added
+	 */
+	public void releaseRewardClaim(String attractionName) {
+		if (!userRewardsByAttraction.containsKey(attractionName)) {
+			claimedRewards.remove(attractionName);
+		}
+	}
+
+	public boolean isRewardClaimed(String attractionName) {
+		return claimedRewards.contains(attractionName);
+	}
+
+	/**
+	 * @return a read-only, weakly consistent view of the rewards, in the order they were added
+	 */
+	public Collection<UserReward> getUserRewards() {
+		return Collections.unmodifiableCollection(userRewards);
 	}
 	
+	/**
+	 * @return the sum of the points of the rewards added, maintained as they are added
+	 */
+	public long getTotalRewardPoints() {
+		return totalRewardPoints.sum();
+	}
+
+	/**
+	 * @return the reward points of each rewarded attraction, by attraction name
+	 */
+	public Map<String, Integer> getRewardPointsByAttraction() {
+		Map<String, Integer> rewardPoints = new HashMap<>();
+		userRewardsByAttraction.forEach((attractionName, userReward) ->
+				rewardPoints.put(attractionName, userReward.getRewardPoints()));
+		return rewardPoints;
+	}
+
+	/**
+	 * @return the reward points by month of the rewarded visit, in UTC
+	 */
+	public Map<YearMonth, Long> getRewardPointsByMonth() {
+		Map<YearMonth, Long> rewardPoints = new TreeMap<>();
+		rewardPointsByMonth.forEach((month, points) -> rewardPoints.put(month, points.sum()));
+		return rewardPoints;
+	}
+
 	public UserPreferences getUserPreferences() {
 		return userPreferences;
 	}
@@ -89,7 +211,7 @@ public class User {
 	}
 
 	public VisitedLocation getLastVisitedLocation() {
-		return visitedLocations.get(visitedLocations.size() - 1);
+		return locationHistory.getLast(userId);
 	}
 	
 	public void setTripDeals(List<Provider> tripDeals) {
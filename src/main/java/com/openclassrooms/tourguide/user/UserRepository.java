@@ -0,0 +1,24 @@
+package com.openclassrooms.tourguide.user;
+
+import java.util.Collection;
+import java.util.UUID;
+
+public interface UserRepository {
+
+	/**
+	 * Adds the user unless a user with the same name already exists
+	 * @return the existing user, or null if the user was added
+	 */
+	User putIfAbsent(User user);
+
+	User findByUserName(String userName);
+
+	User findByUserId(UUID userId);
+
+	/**
+	 * @return a read-only, weakly consistent view of the users: users added while iterating may or may not be seen
+	 */
+	Collection<User> findAll();
+
+	int count();
+}
@@ -0,0 +1,89 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.user.LocationHistory;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestLocationHistory {
+
+	@Test
+	public void oldestLocationsAreSpilledOnceTheHistoryIsFull() {
+		List<Double> spilled = new ArrayList<>();
+		LocationHistory history = new LocationHistory(20, null, (latitude, longitude, timeMillis) -> spilled.add(latitude));
+		for (int i = 0; i < 50; i++) {
+			history.add(i, -i, i);
+		}
+
+		assertEquals(20, history.size());
+		assertEquals(30, history.getStartSequence());
+		assertEquals(50, history.getEndSequence());
+		assertEquals(30, spilled.size());
+		assertEquals(29.0, spilled.get(29));
+		assertEquals(30.0, history.toVisitedLocations(UUID.randomUUID()).get(0).location.latitude);
+		assertEquals(49.0, history.getLast(UUID.randomUUID()).location.latitude);
+
+		List<Long> visited = new ArrayList<>();
+		history.forEach(45, 60, (sequence, latitude, longitude, timeMillis) -> visited.add(timeMillis));
+		assertEquals(List.of(45L, 46L, 47L, 48L, 49L), visited);
+	}
+
+	@Test
+	public void locationsOlderThanTheMaxAgeAreEvicted() {
+		LocationHistory history = new LocationHistory(100, Duration.ofMillis(10), LocationHistory.SpillListener.NONE);
+		for (int i = 0; i < 50; i++) {
+			history.add(i, i, i);
+		}
+
+		assertEquals(11, history.size());
+		assertEquals(39.0, history.toVisitedLocations(UUID.randomUUID()).get(0).location.latitude);
+	}
+
+	@Test
+	public void snapshotsStayConsistentWhileLocationsAreAdded() throws InterruptedException {
+		LocationHistory history = new LocationHistory(100, null, LocationHistory.SpillListener.NONE);
+		LocationHistory.Snapshot before = history.snapshot();
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 200_000; i++) {
+				history.add(i, i, i);
+			}
+		});
+		writer.start();
+		while (writer.isAlive()) {
+			LocationHistory.Snapshot snapshot = history.snapshot();
+			long[] expected = {snapshot.getStartSequence()};
+			// every location is read with the values written for its sequence, in order and without gaps
+			snapshot.forEach(0, Long.MAX_VALUE, (sequence, latitude, longitude, timeMillis) -> {
+				assertEquals(expected[0]++, sequence);
+				assertEquals(sequence, timeMillis);
+				assertEquals((double) sequence, latitude);
+			});
+			assertEquals(snapshot.getEndSequence(), expected[0]);
+		}
+		writer.join();
+
+		assertEquals(0, before.size());
+		assertEquals(100, history.size());
+	}
+
+	@Test
+	public void lastIsEmptyOnceTheHistoryIsCleared() {
+		LocationHistory history = new LocationHistory(100, null, LocationHistory.SpillListener.NONE);
+		UUID userId = UUID.randomUUID();
+		assertTrue(history.last(userId).isEmpty());
+
+		history.add(1, 2, 3);
+		history.add(4, 5, 6);
+		assertEquals(4.0, history.last(userId).get().location.latitude);
+		assertEquals(6, history.last(userId).get().timeVisited.getTime());
+
+		history.clear();
+		assertTrue(history.last(userId).isEmpty());
+	}
+}
@@ -1,9 +1,13 @@
 package com.openclassrooms.tourguide;
 
+import com.openclassrooms.tourguide.concurrent.ExecutionMode;
+import com.openclassrooms.tourguide.concurrent.TaskExecutors;
 import com.openclassrooms.tourguide.helper.InternalTestHelper;
 import com.openclassrooms.tourguide.mapper.NearAttractionMapper;
+import com.openclassrooms.tourguide.service.RewardPointsCache;
 import com.openclassrooms.tourguide.service.RewardsService;
 import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.spatial.ProximityMode;
 import com.openclassrooms.tourguide.user.User;
 import gpsUtil.GpsUtil;
 import gpsUtil.location.Attraction;
@@ -16,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -44,18 +49,54 @@ public class TestPerformance {
 	 * highVolumeGetRewards: 100,000 users within 20 minutes:
 	 * assertTrue(TimeUnit.MINUTES.toSeconds(20) >=
 	 * TimeUnit.MILLISECONDS.toSeconds(stopWatch.getTime()));
+	 *
+	 * The execution mode of the services can be compared by running the tests with
+	 * -DexecutionMode=FIXED_POOL or -DexecutionMode=VIRTUAL_THREADS (Java 21+),
+	 * and the proximity engine of the rewards with -DproximityMode=INDEX, SCALAR_BATCH or VECTOR_BATCH
+	 * (with the vector profile).
 	 */
 
 	NearAttractionMapper nearAttractionMapper;
 
+	private static final ExecutionMode executionMode = ExecutionMode.valueOf(System.getProperty("executionMode", "FIXED_POOL"));
+	private static final ProximityMode proximityMode = ProximityMode.valueOf(System.getProperty("proximityMode", "INDEX"));
+
+	private static ExecutorService createExecutor() {
+		return TaskExecutors.create(executionMode, RewardsService.FIXED_THREAD_POOLS_SIZE,
+				RewardsService.FIXED_THREAD_POOLS_SIZE);
+	}
+
+	private RewardsService createRewardsService(GpsUtil gpsUtil, ExecutorService rewardsExecutor) {
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral(), new RewardPointsCache(),
+				rewardsExecutor);
+		rewardsService.setProximityMode(proximityMode);
+		return rewardsService;
+	}
+
+	private TourGuideService createTourGuideService(GpsUtil gpsUtil, RewardsService rewardsService,
+			ExecutorService trackingExecutor) {
+		return new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper, trackingExecutor);
+	}
+
 	@Test
 	public void highVolumeTrackLocation() {
+		ExecutorService rewardsExecutor = createExecutor();
+		ExecutorService trackingExecutor = createExecutor();
+		try {
+			trackLocations(rewardsExecutor, trackingExecutor);
+		} finally {
+			trackingExecutor.shutdown();
+			rewardsExecutor.shutdown();
+		}
+	}
+
+	private void trackLocations(ExecutorService rewardsExecutor, ExecutorService trackingExecutor) {
 		GpsUtil gpsUtil = new GpsUtil();
-		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		RewardsService rewardsService = createRewardsService(gpsUtil, rewardsExecutor);
 		// Users should be incremented up to 100,000, and test finishes within 15
 		// minutes
 		InternalTestHelper.setInternalUserNumber(100000);
-		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper );
+		TourGuideService tourGuideService = createTourGuideService(gpsUtil, rewardsService, trackingExecutor);
 
 		List<User> allUsers = new ArrayList<>();
 		allUsers = tourGuideService.getAllUsers();
@@ -82,15 +123,26 @@ public class TestPerformance {
 
 	@Test
 	public void highVolumeGetRewards() {
+		ExecutorService rewardsExecutor = createExecutor();
+		ExecutorService trackingExecutor = createExecutor();
+		try {
+			getRewards(rewardsExecutor, trackingExecutor);
+		} finally {
+			trackingExecutor.shutdown();
+			rewardsExecutor.shutdown();
+		}
+	}
+
+	private void getRewards(ExecutorService rewardsExecutor, ExecutorService trackingExecutor) {
 		GpsUtil gpsUtil = new GpsUtil();
-		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		RewardsService rewardsService = createRewardsService(gpsUtil, rewardsExecutor);
 
 		// Users should be incremented up to 100,000, and test finishes within 20
 		// minutes
 		InternalTestHelper.setInternalUserNumber(10000);
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
-		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+		TourGuideService tourGuideService = createTourGuideService(gpsUtil, rewardsService, trackingExecutor);
 
 		Attraction attraction = gpsUtil.getAttractions().get(0);
 		List<User> allUsers = new ArrayList<>();
@@ -98,9 +150,7 @@ public class TestPerformance {
 		allUsers.forEach(u -> u.addToVisitedLocations(new VisitedLocation(u.getUserId(), attraction, new Date())));
 
 		/*long start = System.currentTimeMillis();*/
-		CompletableFuture<Void>[] futures = allUsers.stream().map(u -> rewardsService.calculateRewards(u)).collect(Collectors.toList())
-				.toArray(new CompletableFuture[0]);
-		CompletableFuture.allOf(futures).join();
+		rewardsService.calculateRewards(allUsers).join();
 
 		for (User user : allUsers) {
 			assertTrue(user.getUserRewards().size() > 0);
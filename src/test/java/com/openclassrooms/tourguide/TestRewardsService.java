@@ -2,22 +2,48 @@ package com.openclassrooms.tourguide;
 
 import com.openclassrooms.tourguide.helper.InternalTestHelper;
 import com.openclassrooms.tourguide.mapper.NearAttractionMapper;
+import com.openclassrooms.tourguide.model.RewardsRecomputeStatus;
+import com.openclassrooms.tourguide.service.AttractionCatalog;
+import com.openclassrooms.tourguide.service.RewardPointsCache;
+import com.openclassrooms.tourguide.service.RewardsRecomputeJob;
 import com.openclassrooms.tourguide.service.RewardsService;
 import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.spatial.AttractionIndex;
+import com.openclassrooms.tourguide.spatial.DistanceStrategy;
+import com.openclassrooms.tourguide.spatial.ProximityMode;
 import com.openclassrooms.tourguide.user.User;
 import com.openclassrooms.tourguide.user.UserReward;
 import gpsUtil.GpsUtil;
 import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
 import gpsUtil.location.VisitedLocation;
 import org.junit.jupiter.api.Test;
 import rewardCentral.RewardCentral;
 
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestRewardsService {
@@ -38,7 +64,7 @@ public class TestRewardsService {
 		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
 		CompletableFuture<VisitedLocation> visitedLocation = tourGuideService.trackUserLocation(user);
 		CompletableFuture.allOf(visitedLocation).join();
-		List<UserReward> userRewards = user.getUserRewards();
+		Collection<UserReward> userRewards = user.getUserRewards();
 		tourGuideService.tracker.stopTracking();
 		assertTrue(userRewards.size() == 26);
 	}
@@ -62,10 +88,483 @@ public class TestRewardsService {
 		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
 
 		rewardsService.calculateRewards(tourGuideService.getAllUsers().get(0)).join();
-		List<UserReward> userRewards = tourGuideService.getUserRewards(tourGuideService.getAllUsers().get(0));
+		Collection<UserReward> userRewards = tourGuideService.getUserRewards(tourGuideService.getAllUsers().get(0));
 		tourGuideService.tracker.stopTracking();
 
 		assertEquals(gpsUtil.getAttractions().size(), userRewards.size());
 	}
 
+	@Test
+	public void distanceStrategiesAgree() {
+		GpsUtil gpsUtil = new GpsUtil();
+		List<Attraction> attractions = gpsUtil.getAttractions();
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			double latitude = random.nextDouble() * 180 - 90;
+			double longitude = random.nextDouble() * 360 - 180;
+			double reference = DistanceStrategy.LAW_OF_COSINES.distance(0, 0, latitude, longitude);
+			assertEquals(reference, DistanceStrategy.HAVERSINE.distance(0, 0, latitude, longitude), 1e-6);
+			assertEquals(reference, DistanceStrategy.UNIT_VECTOR.distance(0, 0, latitude, longitude), 1e-6);
+		}
+		// about 0.69 mile between two points 0.01 degree apart
+		assertEquals(0.01 * AttractionIndex.STATUTE_MILES_PER_DEGREE, DistanceStrategy.HAVERSINE.distance(0, 0, 0.01, 0), 1e-9);
+
+		for (DistanceStrategy distanceStrategy : DistanceStrategy.values()) {
+			AttractionIndex index = new AttractionIndex(attractions, 500, distanceStrategy);
+			for (Attraction attraction : attractions) {
+				long expected = attractions.stream().filter(a -> DistanceStrategy.HAVERSINE.distance(a.latitude,
+						a.longitude, attraction.latitude, attraction.longitude) <= 500).count();
+				assertEquals(expected, index.within(attraction.latitude, attraction.longitude).size());
+			}
+		}
+	}
+
+	@Test
+	public void batchProximityEnginesRewardLikeTheIndex() {
+		GpsUtil gpsUtil = new GpsUtil();
+		List<Set<String>> rewardedAttractions = new ArrayList<>();
+		for (ProximityMode proximityMode : ProximityMode.values()) {
+			RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+			rewardsService.setProximityMode(proximityMode);
+			Random random = new Random(42);
+			List<User> users = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				User user = new User(new UUID(0, i), "user" + i, "000", "user" + i + "@tourGuide.com");
+				for (int j = 0; j < 50; j++) {
+					Location location = new Location(random.nextDouble() * 60 + 10, random.nextDouble() * 100 - 160);
+					user.addToVisitedLocations(new VisitedLocation(user.getUserId(), location, new Date()));
+				}
+				users.add(user);
+			}
+			rewardsService.calculateRewards(users).join();
+
+			Set<String> attractionNames = new TreeSet<>();
+			for (User user : users) {
+				user.getUserRewards().forEach(r -> attractionNames.add(user.getUserName() + ":" + r.attraction.attractionName));
+			}
+			rewardedAttractions.add(attractionNames);
+		}
+
+		assertTrue(!rewardedAttractions.get(0).isEmpty());
+		assertEquals(rewardedAttractions.get(0), rewardedAttractions.get(1));
+		assertEquals(rewardedAttractions.get(0), rewardedAttractions.get(2));
+	}
+
+	@Test
+	public void recomputeJobRewardsEveryUserAgain() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		rewardsService.setProximityBuffer(1);
+		Attraction attraction = gpsUtil.getAttractions().get(0);
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			User user = new User(UUID.randomUUID(), "user" + i, "000", "user" + i + "@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+			users.add(user);
+		}
+		ExecutorService lookupExecutor = Executors.newFixedThreadPool(64);
+		try {
+			RewardsRecomputeJob job = new RewardsRecomputeJob(rewardsService, () -> users, lookupExecutor, 4, 1,
+					RewardsRecomputeJob.DEFAULT_MAX_IN_FLIGHT_LOOKUP_BATCHES);
+
+			RewardsRecomputeStatus status = job.start().join();
+			assertEquals(RewardsRecomputeStatus.State.COMPLETED, status.getState());
+			assertEquals(20, status.getScannedUsers());
+			assertEquals(status.getClaimedRewards(), status.getAddedRewards());
+			users.forEach(user -> assertEquals(1, user.getUserRewards().size()));
+
+			rewardsService.setProximityBuffer(Integer.MAX_VALUE);
+			status = job.start().join();
+			assertEquals(20 * (gpsUtil.getAttractions().size() - 1), status.getAddedRewards());
+			users.forEach(user -> assertEquals(gpsUtil.getAttractions().size(), user.getUserRewards().size()));
+			assertEquals(status.getState(), job.getStatus().getState());
+		} finally {
+			lookupExecutor.shutdown();
+			rewardsService.shutdown();
+		}
+	}
+
+	@Test
+	public void cancelledRecomputeJobReleasesTheRewardsNotLookedUp() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		rewardsService.setProximityBuffer(Integer.MAX_VALUE);
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			User user = new User(UUID.randomUUID(), "user" + i, "000", "user" + i + "@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(0, 0), new Date()));
+			users.add(user);
+		}
+		ExecutorService lookupExecutor = Executors.newFixedThreadPool(2);
+		try {
+			RewardsRecomputeJob job = new RewardsRecomputeJob(rewardsService, () -> users, lookupExecutor, 1, 4, 2);
+
+			CompletableFuture<RewardsRecomputeStatus> future = job.start();
+			assertTrue(job.start() == null);
+			job.cancel();
+			RewardsRecomputeStatus status = future.join();
+
+			assertEquals(RewardsRecomputeStatus.State.CANCELLED, status.getState());
+			for (User user : users) {
+				for (Attraction attraction : gpsUtil.getAttractions()) {
+					boolean rewarded = user.getUserRewards().stream()
+							.anyMatch(r -> r.attraction.attractionName.equals(attraction.attractionName));
+					assertEquals(rewarded, user.isRewardClaimed(attraction.attractionName));
+				}
+			}
+
+			// the released rewards are claimed again by the next calculation
+			rewardsService.calculateRewards(users).join();
+			users.forEach(user -> assertEquals(gpsUtil.getAttractions().size(), user.getUserRewards().size()));
+		} finally {
+			lookupExecutor.shutdown();
+			rewardsService.shutdown();
+		}
+	}
+
+	@Test
+	public void recomputeJobBoundsTheLookupBatchesInFlight() {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		// the rewards of a batch are looked up one after the other, so the lookups running at once count the batches
+		RewardCentral slowRewardCentral = new RewardCentral() {
+			@Override
+			public int getAttractionRewardPoints(UUID attractionId, UUID userId) {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+				return 10;
+			}
+		};
+		GpsUtil gpsUtil = new GpsUtil();
+		ExecutorService executorService = Executors.newFixedThreadPool(8);
+		try {
+			RewardsService rewardsService = new RewardsService(gpsUtil, slowRewardCentral, new RewardPointsCache(),
+					executorService);
+			rewardsService.setProximityBuffer(Integer.MAX_VALUE);
+			List<User> users = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				User user = new User(UUID.randomUUID(), "user" + i, "000", "user" + i + "@tourGuide.com");
+				user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(0, 0), new Date()));
+				users.add(user);
+			}
+			RewardsRecomputeJob job = new RewardsRecomputeJob(rewardsService, () -> users, executorService, 1, 4, 2);
+
+			RewardsRecomputeStatus status = job.start().join();
+			assertEquals(RewardsRecomputeStatus.State.COMPLETED, status.getState());
+			assertEquals(20 * gpsUtil.getAttractions().size(), status.getAddedRewards());
+			assertTrue(maxRunning.get() <= 2);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectedLookupBatchesAreReleased() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		rewardsService.setProximityBuffer(1);
+		Attraction attraction = gpsUtil.getAttractions().get(0);
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			User user = new User(UUID.randomUUID(), "user" + i, "000", "user" + i + "@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+			users.add(user);
+		}
+		Executor rejectingExecutor = command -> {
+			throw new RejectedExecutionException("lookup queue full");
+		};
+		try {
+			RewardsRecomputeJob job = new RewardsRecomputeJob(rewardsService, () -> users, rejectingExecutor, 1, 1, 2);
+
+			RewardsRecomputeStatus status = job.start().join();
+			assertEquals(5, status.getClaimedRewards());
+			assertEquals(5, status.getFailedRewards());
+			assertEquals(0, status.getAddedRewards());
+			users.forEach(user -> assertFalse(user.isRewardClaimed(attraction.attractionName)));
+
+			rewardsService.calculateRewards(users).join();
+			users.forEach(user -> assertEquals(1, user.getUserRewards().size()));
+		} finally {
+			rewardsService.shutdown();
+		}
+	}
+
+	@Test
+	public void calculateRewardsOnlyProcessesNewLocations() {
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		assertEquals(0, user.markLocationsRewarded(0, 3));
+		assertEquals(3, user.markLocationsRewarded(0, 5));
+		assertEquals(5, user.markLocationsRewarded(0, 5));
+		// a new generation processes the whole history again
+		assertEquals(0, user.markLocationsRewarded(1, 5));
+	}
+
+	@Test
+	public void addUserRewardKeepsOneRewardPerAttraction() {
+		GpsUtil gpsUtil = new GpsUtil();
+		List<Attraction> attractions = gpsUtil.getAttractions();
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), attractions.get(0), new Date());
+
+		attractions.parallelStream().forEach(a -> {
+			user.addUserReward(new UserReward(visitedLocation, a, 10));
+			user.addUserReward(new UserReward(visitedLocation, a, 20));
+		});
+
+		assertEquals(attractions.size(), user.getUserRewards().size());
+	}
+
+	@Test
+	public void rewardPointsTotalFollowsTheAddedRewards() {
+		GpsUtil gpsUtil = new GpsUtil();
+		List<Attraction> attractions = gpsUtil.getAttractions();
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		VisitedLocation january = new VisitedLocation(user.getUserId(), attractions.get(0), new Date(1704067200000L));
+		VisitedLocation february = new VisitedLocation(user.getUserId(), attractions.get(0), new Date(1706745600000L));
+
+		attractions.parallelStream().forEach(a -> {
+			user.addUserReward(new UserReward(a == attractions.get(0) ? february : january, a, 10));
+			user.addUserReward(new UserReward(january, a, 20));
+		});
+
+		assertEquals(10L * attractions.size(), user.getTotalRewardPoints());
+		assertEquals(user.getUserRewards().stream().mapToInt(UserReward::getRewardPoints).sum(), user.getTotalRewardPoints());
+		assertEquals(Integer.valueOf(10), user.getRewardPointsByAttraction().get(attractions.get(1).attractionName));
+		assertEquals(Map.of(YearMonth.of(2024, 1), 10L * (attractions.size() - 1), YearMonth.of(2024, 2), 10L),
+				user.getRewardPointsByMonth());
+	}
+
+	@Test
+	public void alreadyRewardedAttractionsAreNotLookedUpAgain() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		Attraction attraction = gpsUtil.getAttractions().get(0);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		user.addUserReward(new UserReward(new VisitedLocation(user.getUserId(), attraction, new Date()), attraction, 10));
+		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+		rewardsService.calculateRewards(user).join();
+
+		assertTrue(rewardsService.getAvoidedRewardLookups() >= 1);
+		assertEquals(10, user.getUserRewards().iterator().next().getRewardPoints());
+	}
+
+	@Test
+	public void rewardLookupFailingAcrossAGenerationChangeIsRetried() throws InterruptedException {
+		CountDownLatch lookupStarted = new CountDownLatch(1);
+		CountDownLatch failLookup = new CountDownLatch(1);
+		AtomicInteger lookups = new AtomicInteger();
+		RewardCentral failingOnce = new RewardCentral() {
+			@Override
+			public int getAttractionRewardPoints(UUID attractionId, UUID userId) {
+				if (lookups.incrementAndGet() == 1) {
+					lookupStarted.countDown();
+					try {
+						failLookup.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new IllegalStateException("RewardCentral unavailable");
+				}
+				return 10;
+			}
+		};
+		GpsUtil gpsUtil = new GpsUtil();
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			RewardsService rewardsService = new RewardsService(gpsUtil, failingOnce, new RewardPointsCache(),
+					executorService);
+			rewardsService.setProximityBuffer(1);
+			Attraction attraction = gpsUtil.getAttractions().get(0);
+			User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+
+			CompletableFuture<Void> failing = rewardsService.calculateRewards(user);
+			lookupStarted.await();
+			// the new generation rescans the history while the reward is still claimed by the failing lookup
+			rewardsService.setProximityBuffer(2);
+			rewardsService.calculateRewards(user).join();
+			failLookup.countDown();
+			assertThrows(CompletionException.class, failing::join);
+			assertEquals(0, user.getUserRewards().size());
+
+			rewardsService.calculateRewards(user).join();
+			assertEquals(1, user.getUserRewards().size());
+		} finally {
+			failLookup.countDown();
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void failedRewardLookupIsRetriedByTheNextCalculation() {
+		AtomicInteger lookups = new AtomicInteger();
+		RewardCentral failingOnce = new RewardCentral() {
+			@Override
+			public int getAttractionRewardPoints(UUID attractionId, UUID userId) {
+				if (lookups.incrementAndGet() == 1) {
+					throw new IllegalStateException("RewardCentral unavailable");
+				}
+				return 10;
+			}
+		};
+		GpsUtil gpsUtil = new GpsUtil();
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			RewardsService rewardsService = new RewardsService(gpsUtil, failingOnce, new RewardPointsCache(),
+					executorService);
+			rewardsService.setProximityBuffer(1);
+			Attraction attraction = gpsUtil.getAttractions().get(0);
+			User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+
+			assertThrows(CompletionException.class, () -> rewardsService.calculateRewards(user).join());
+			assertEquals(0, user.getUserRewards().size());
+
+			rewardsService.calculateRewards(user).join();
+			assertEquals(1, user.getUserRewards().size());
+			assertEquals(10, user.getUserRewards().iterator().next().getRewardPoints());
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void rewardPointsAreCached() {
+		AtomicInteger lookups = new AtomicInteger();
+		RewardCentral countingRewardCentral = new RewardCentral() {
+			@Override
+			public int getAttractionRewardPoints(UUID attractionId, UUID userId) {
+				return lookups.incrementAndGet();
+			}
+		};
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardPointsCache rewardPointsCache = new RewardPointsCache();
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			RewardsService rewardsService = new RewardsService(gpsUtil, countingRewardCentral, rewardPointsCache,
+					executorService);
+			Attraction attraction = gpsUtil.getAttractions().get(0);
+			User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+
+			assertEquals(1, rewardsService.getRewardPoints(attraction, user));
+			assertEquals(1, rewardsService.getRewardPoints(attraction, user));
+			assertEquals(1, lookups.get());
+			assertEquals(1, rewardPointsCache.getCache().stats().missCount());
+			assertEquals(1, rewardPointsCache.getCache().stats().hitCount());
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void proximityBufferChangeRecomputesRewards() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(0, 0), new Date()));
+		rewardsService.calculateRewards(user).join();
+		assertEquals(0, user.getUserRewards().size());
+
+		rewardsService.setProximityBuffer(Integer.MAX_VALUE);
+		rewardsService.calculateRewards(user).join();
+		assertEquals(gpsUtil.getAttractions().size(), user.getUserRewards().size());
+	}
+
+	@Test
+	public void attractionCatalogChangeRecomputesRewards() {
+		List<Attraction> attractions = new GpsUtil().getAttractions();
+		AtomicInteger catalogSize = new AtomicInteger(1);
+		GpsUtil gpsUtil = new GpsUtil() {
+			// new ids on every call, as gpsUtil does
+			@Override
+			public List<Attraction> getAttractions() {
+				return attractions.subList(0, catalogSize.get()).stream()
+						.map(a -> new Attraction(a.attractionName, a.city, a.state, a.latitude, a.longitude))
+						.collect(Collectors.toList());
+			}
+		};
+		AttractionCatalog attractionCatalog = new AttractionCatalog(gpsUtil);
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			RewardsService rewardsService = new RewardsService(attractionCatalog, new RewardCentral(),
+					new RewardPointsCache(), executorService);
+			rewardsService.setProximityBuffer(1);
+
+			Attraction attraction = attractions.get(1);
+			User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+			user.addToVisitedLocations(new VisitedLocation(user.getUserId(), attraction, new Date()));
+			rewardsService.calculateRewards(user).join();
+			assertEquals(0, user.getUserRewards().size());
+
+			AttractionCatalog.Snapshot snapshot = attractionCatalog.getSnapshot();
+			assertTrue(snapshot == attractionCatalog.refresh());
+			assertEquals(1, snapshot.getVersion());
+
+			catalogSize.set(2);
+			snapshot = attractionCatalog.refresh();
+			assertEquals(2, snapshot.getVersion());
+			assertEquals(attraction.attractionName, snapshot.getAttraction(snapshot.getAttractions().get(1).attractionId)
+					.attractionName);
+			rewardsService.calculateRewards(user).join();
+			assertEquals(1, user.getUserRewards().size());
+			assertEquals(attraction.attractionName, user.getUserRewards().iterator().next().attraction.attractionName);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void attractionCatalogKeepsRefreshingAfterAFailedFirstFetch() throws InterruptedException {
+		AtomicInteger failures = new AtomicInteger(2);
+		GpsUtil gpsUtil = new GpsUtil() {
+			@Override
+			public List<Attraction> getAttractions() {
+				if (failures.getAndDecrement() > 0) {
+					throw new IllegalStateException("gpsUtil unavailable");
+				}
+				return super.getAttractions();
+			}
+		};
+		AttractionCatalog attractionCatalog = new AttractionCatalog(gpsUtil);
+		attractionCatalog.startRefreshing(Duration.ofMillis(10));
+		try {
+			// a failure reported while no snapshot is published must not cancel the schedule
+			long deadline = System.currentTimeMillis() + 5000;
+			while (failures.get() >= 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(failures.get() < 0);
+			assertEquals(1, attractionCatalog.getSnapshot().getVersion());
+		} finally {
+			attractionCatalog.stopRefreshing();
+		}
+	}
+
+	@Test
+	public void attractionIndexReturnsEveryAttractionInRange() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		List<Attraction> attractions = gpsUtil.getAttractions();
+		AttractionIndex attractionIndex = new AttractionIndex(attractions, 500);
+		Random random = new Random(42);
+
+		for (int i = 0; i < 1000; i++) {
+			Location location = new Location(20 + random.nextDouble() * 40, -160 + random.nextDouble() * 100);
+			List<Attraction> candidates = attractionIndex.candidates(location);
+			for (Attraction attraction : attractions) {
+				if (rewardsService.getDistance(attraction, location) <= 500) {
+					assertTrue(candidates.contains(attraction));
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,72 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.concurrent.ExecutionMode;
+import com.openclassrooms.tourguide.concurrent.RejectionPolicy;
+import com.openclassrooms.tourguide.concurrent.TaskExecutorMetrics;
+import com.openclassrooms.tourguide.concurrent.TaskExecutors;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestTaskExecutors {
+
+	@Test
+	public void rejectedTasksAreCountedInTheMetrics() throws InterruptedException {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		ExecutorService executorService = TaskExecutorMetrics.monitor(meterRegistry,
+				TaskExecutors.create("test", ExecutionMode.FIXED_POOL, 1, 1, RejectionPolicy.ABORT, 1), "test");
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			// one task running and one queued fill the pool
+			executorService.execute(() -> awaitQuietly(release));
+			executorService.execute(() -> awaitQuietly(release));
+
+			assertThrows(RejectedExecutionException.class, () -> executorService.execute(() -> {
+			}));
+			assertThrows(RejectedExecutionException.class, () -> executorService.execute(() -> {
+			}));
+			assertEquals(2.0, meterRegistry.get("executor.rejected").tag("name", "test").functionCounter().count(),
+					0.0);
+		} finally {
+			release.countDown();
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void callerRunsPolicyRunsTheRejectedTaskOnTheSubmittingThread() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		ExecutorService executorService = TaskExecutorMetrics.monitor(meterRegistry,
+				TaskExecutors.create("test", ExecutionMode.FIXED_POOL, 1, 1, RejectionPolicy.CALLER_RUNS, 1), "test");
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executorService.execute(() -> awaitQuietly(release));
+			executorService.execute(() -> awaitQuietly(release));
+
+			AtomicReference<Thread> runner = new AtomicReference<>();
+			executorService.execute(() -> runner.set(Thread.currentThread()));
+			assertTrue(runner.get() == Thread.currentThread());
+			assertEquals(1.0, meterRegistry.get("executor.rejected").tag("name", "test").functionCounter().count(),
+					0.0);
+		} finally {
+			release.countDown();
+			executorService.shutdown();
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.helper.InternalTestHelper;
+import com.openclassrooms.tourguide.mapper.NearAttractionMapperImpl;
+import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.user.User;
+import gpsUtil.GpsUtil;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import rewardCentral.RewardCentral;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestTourGuideController {
+
+	private TourGuideService tourGuideService;
+
+	private TourGuideController newController() {
+		GpsUtil gpsUtil = new GpsUtil();
+		InternalTestHelper.setInternalUserNumber(0);
+		tourGuideService = new TourGuideService(gpsUtil, new RewardsService(gpsUtil, new RewardCentral()),
+				new NearAttractionMapperImpl());
+		tourGuideService.tracker.stopTracking();
+		TourGuideController tourGuideController = new TourGuideController();
+		tourGuideController.tourGuideService = tourGuideService;
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(33.8, -117.9), new Date()));
+		tourGuideService.addUser(user);
+		return tourGuideController;
+	}
+
+	@Test
+	public void getNearbyAttractionsCapsTheLimitToTheAttractions() {
+		TourGuideController tourGuideController = newController();
+
+		assertEquals(tourGuideService.getAttractionCount(), tourGuideController
+				.getNearbyAttractions("jon", Integer.MAX_VALUE, null).join().getNearbyAttractionList().size());
+	}
+
+	@Test
+	public void getNearbyAttractionsRejectsANegativeLimit() {
+		TourGuideController tourGuideController = newController();
+
+		ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+				() -> tourGuideController.getNearbyAttractions("jon", -1, null));
+		assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+	}
+
+	@Test
+	public void getLocationRejectsANegativeMaxStaleness() {
+		TourGuideController tourGuideController = newController();
+
+		ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+				() -> tourGuideController.getLocation("jon", -1L));
+		assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+	}
+
+	@Test
+	public void getLocationServesTheLastLocationForTheLargestMaxStaleness() {
+		TourGuideController tourGuideController = newController();
+		VisitedLocation lastVisitedLocation = tourGuideService.getUser("jon").getLastVisitedLocation();
+
+		VisitedLocation visitedLocation = tourGuideController.getLocation("jon", Long.MAX_VALUE).join();
+		assertEquals(lastVisitedLocation.timeVisited, visitedLocation.timeVisited);
+		assertEquals(lastVisitedLocation.location.latitude, visitedLocation.location.latitude, 0.0);
+	}
+}
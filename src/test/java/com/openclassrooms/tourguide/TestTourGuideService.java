@@ -4,8 +4,14 @@ import com.openclassrooms.tourguide.helper.InternalTestHelper;
 import com.openclassrooms.tourguide.mapper.NearAttractionMapper;
 import com.openclassrooms.tourguide.mapper.NearAttractionMapperImpl;
 import com.openclassrooms.tourguide.model.NearAttractionResult;
+import com.openclassrooms.tourguide.model.NearbyAttraction;
+import com.openclassrooms.tourguide.model.UserLocation;
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
 import com.openclassrooms.tourguide.service.RewardsService;
 import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.service.TripDealsCache;
+import com.openclassrooms.tourguide.spatial.BoundingBox;
+import com.openclassrooms.tourguide.tracker.TrackingPipeline;
 import com.openclassrooms.tourguide.user.User;
 import gpsUtil.GpsUtil;
 import gpsUtil.location.Location;
@@ -14,12 +20,27 @@ import org.junit.jupiter.api.Test;
 import rewardCentral.RewardCentral;
 import tripPricer.Provider;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestTourGuideService {
@@ -39,6 +60,52 @@ public class TestTourGuideService {
 		assertTrue(visitedLocation.join().userId.equals(user.getUserId()));
 	}
 
+	@Test
+	public void getUserLocationServesARecentLocation() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		VisitedLocation firstLocation = tourGuideService.getUserLocation(user);
+		VisitedLocation recentLocation = tourGuideService.getUserLocation(user);
+		VisitedLocation newLocation = tourGuideService.getUserLocationAsync(user, Duration.ZERO).join();
+		tourGuideService.tracker.stopTracking();
+
+		assertEquals(firstLocation.location.latitude, recentLocation.location.latitude);
+		assertEquals(firstLocation.timeVisited, recentLocation.timeVisited);
+		assertEquals(user.getUserId(), newLocation.userId);
+		assertEquals(2, user.getVisitedLocations().size());
+	}
+
+	@Test
+	public void getLastLocationsFiltersByBoundingBoxAndTime() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+		tourGuideService.tracker.stopTracking();
+
+		User paris = new User(UUID.randomUUID(), "paris", "000", "paris@tourGuide.com");
+		paris.addToVisitedLocations(new VisitedLocation(paris.getUserId(), new Location(0, 0), new Date(1000)));
+		paris.addToVisitedLocations(new VisitedLocation(paris.getUserId(), new Location(48.85, 2.35), new Date(5000)));
+		User tokyo = new User(UUID.randomUUID(), "tokyo", "000", "tokyo@tourGuide.com");
+		tokyo.addToVisitedLocations(new VisitedLocation(tokyo.getUserId(), new Location(35.68, 139.69), new Date(2000)));
+		User nowhere = new User(UUID.randomUUID(), "nowhere", "000", "nowhere@tourGuide.com");
+		tourGuideService.addUser(paris);
+		tourGuideService.addUser(tokyo);
+		tourGuideService.addUser(nowhere);
+
+		assertEquals(2, tourGuideService.getLastLocations(null, null).count());
+		List<UserLocation> europe = tourGuideService.getLastLocations(new BoundingBox(35, 70, -10, 40), null)
+				.collect(Collectors.toList());
+		assertEquals(1, europe.size());
+		assertEquals(paris.getUserId(), europe.get(0).getUserId());
+		assertEquals(48.85, europe.get(0).getLatitude());
+		assertEquals(1, tourGuideService.getLastLocations(null, Instant.ofEpochMilli(3000)).count());
+	}
+
 	@Test
 	public void addUser() {
 		GpsUtil gpsUtil = new GpsUtil();
@@ -61,6 +128,27 @@ public class TestTourGuideService {
 		assertEquals(user2, retrivedUser2);
 	}
 
+	@Test
+	public void addUserKeepsTheExistingUserWithTheSameName() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		User sameName = new User(UUID.randomUUID(), "jon", "111", "jon2@tourGuide.com");
+
+		tourGuideService.addUser(user);
+		tourGuideService.addUser(sameName);
+
+		tourGuideService.tracker.stopTracking();
+
+		assertEquals(user, tourGuideService.getUser("jon"));
+		assertEquals(user, tourGuideService.getUser(user.getUserId()));
+		assertEquals(null, tourGuideService.getUser(sameName.getUserId()));
+		assertEquals(1, tourGuideService.getAllUsers().size());
+	}
+
 	@Test
 	public void getAllUsers() {
 		GpsUtil gpsUtil = new GpsUtil();
@@ -98,6 +186,107 @@ public class TestTourGuideService {
 	}
 
 
+	@Test
+	public void trackUsersByBatches() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			users.add(new User(UUID.randomUUID(), "jon" + i, "000", "jon" + i + "@tourGuide.com"));
+		}
+		tourGuideService.trackUsers(users).join();
+
+		tourGuideService.tracker.stopTracking();
+
+		for (User user : users) {
+			assertEquals(1, user.getVisitedLocations().size());
+			assertEquals(user.getUserId(), user.getLastVisitedLocation().userId);
+		}
+	}
+
+	@Test
+	public void trackUsersShedsUsersPastTheDeadline() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		tourGuideService.trackUsers(List.of(user), Duration.ZERO).join();
+
+		tourGuideService.tracker.stopTracking();
+
+		assertTrue(user.getVisitedLocations().isEmpty());
+	}
+
+	@Test
+	public void trackUsersDoesNotCountTheUsers() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		// like the view of the users of a partition, counting would go through every user again
+		Collection<User> users = new AbstractCollection<>() {
+			@Override
+			public Iterator<User> iterator() {
+				return List.of(user).iterator();
+			}
+
+			@Override
+			public int size() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		tourGuideService.trackUsers(users).join();
+
+		tourGuideService.tracker.stopTracking();
+
+		assertEquals(1, user.getVisitedLocations().size());
+	}
+
+	@Test
+	public void trackUsersStopsWaitingForAFullPipelineAtTheDeadline() {
+		CountDownLatch release = new CountDownLatch(1);
+		GpsUtil blockingGpsUtil = new GpsUtil() {
+			@Override
+			public VisitedLocation getUserLocation(UUID userId) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new VisitedLocation(userId, new Location(0, 0), new Date());
+			}
+		};
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		RewardsService rewardsService = new RewardsService(blockingGpsUtil, new RewardCentral());
+		try {
+			// one batch of one user in flight at a time
+			TrackingPipeline trackingPipeline = new TrackingPipeline(blockingGpsUtil, rewardsService, executorService,
+					1, 1, UserStateJournal.NOOP);
+			User first = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+			User second = new User(UUID.randomUUID(), "jane", "000", "jane@tourGuide.com");
+
+			long start = System.nanoTime();
+			CompletableFuture<Void> tracked = trackingPipeline.track(List.of(first, second), Duration.ofMillis(200));
+			assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+
+			release.countDown();
+			tracked.join();
+			assertEquals(1, first.getVisitedLocations().size());
+			assertTrue(second.getVisitedLocations().isEmpty());
+		} finally {
+			release.countDown();
+			executorService.shutdown();
+			rewardsService.shutdown();
+		}
+	}
+
 	@Test
 	public void getNearbyAttractions() {
 		GpsUtil gpsUtil = new GpsUtil();
@@ -117,6 +306,47 @@ public class TestTourGuideService {
 		assertEquals(5, nearAttractionResult.getNearbyAttractionList().size());
 	}
 
+	@Test
+	public void getNearbyAttractionsLimitIsBoundedByTheAttractions() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		nearAttractionMapper = new NearAttractionMapperImpl();
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), new Location(33.8, -117.9), new Date());
+
+		NearAttractionResult nearAttractionResult = tourGuideService.getNearByAttractions(visitedLocation, user,
+				Integer.MAX_VALUE);
+		tourGuideService.tracker.stopTracking();
+
+		assertEquals(tourGuideService.getAttractionCount(), nearAttractionResult.getNearbyAttractionList().size());
+	}
+
+	@Test
+	public void getNearbyAttractionsWithLimit() {
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		InternalTestHelper.setInternalUserNumber(0);
+		nearAttractionMapper = new NearAttractionMapperImpl();
+		TourGuideService tourGuideService = new TourGuideService(gpsUtil, rewardsService, nearAttractionMapper);
+		Location location = new Location(33.8, -117.9);
+
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), location, new Date());
+
+		NearAttractionResult nearAttractionResult = tourGuideService.getNearByAttractions(visitedLocation, user, 3);
+
+		tourGuideService.tracker.stopTracking();
+
+		List<NearbyAttraction> nearbyAttractions = nearAttractionResult.getNearbyAttractionList();
+		assertEquals(3, nearbyAttractions.size());
+		assertEquals("Disneyland", nearbyAttractions.get(0).getAttractionName());
+		for (int i = 1; i < nearbyAttractions.size(); i++) {
+			assertTrue(nearbyAttractions.get(i - 1).getDistance() <= nearbyAttractions.get(i).getDistance());
+		}
+	}
+
 	public void getTripDeals() {
 		GpsUtil gpsUtil = new GpsUtil();
 		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
@@ -132,4 +362,89 @@ public class TestTourGuideService {
 		assertEquals(10, providers.size());
 	}
 
+	@Test
+	public void tripDealsAreCachedUntilThePreferencesChange() {
+		TripDealsCache tripDealsCache = new TripDealsCache();
+		AtomicInteger pricings = new AtomicInteger();
+		UUID userId = UUID.randomUUID();
+		Supplier<List<Provider>> tripPricer = () -> {
+			pricings.incrementAndGet();
+			return List.of(new Provider(UUID.randomUUID(), "provider", 100));
+		};
+
+		List<CompletableFuture<List<Provider>>> quotes = IntStream.range(0, 10)
+				.mapToObj(i -> tripDealsCache.getTripDeals(userId, 2, 1, 7, 500, tripPricer, Runnable::run))
+				.collect(Collectors.toList());
+		quotes.forEach(quote -> assertEquals(quotes.get(0).join(), quote.join()));
+		assertEquals(1, pricings.get());
+
+		tripDealsCache.getTripDeals(userId, 2, 2, 7, 500, tripPricer, Runnable::run).join();
+		tripDealsCache.getTripDeals(userId, 2, 1, 7, 500, tripPricer, Runnable::run).join();
+		assertEquals(3, pricings.get());
+	}
+
+	@Test
+	public void concurrentTripDealsRequestsShareOnePricing() throws InterruptedException {
+		TripDealsCache tripDealsCache = new TripDealsCache();
+		AtomicInteger pricings = new AtomicInteger();
+		CountDownLatch pricingStarted = new CountDownLatch(1);
+		CountDownLatch releasePricing = new CountDownLatch(1);
+		UUID userId = UUID.randomUUID();
+		Supplier<List<Provider>> slowTripPricer = () -> {
+			pricings.incrementAndGet();
+			pricingStarted.countDown();
+			try {
+				releasePricing.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return List.of(new Provider(UUID.randomUUID(), "provider", 100));
+		};
+		ExecutorService pricingExecutor = Executors.newFixedThreadPool(4);
+		ExecutorService callers = Executors.newFixedThreadPool(10);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<CompletableFuture<List<Provider>>> quotes = IntStream.range(0, 10)
+					.mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return tripDealsCache.getTripDeals(userId, 2, 1, 7, 500, slowTripPricer, pricingExecutor);
+					}, callers).thenCompose(quote -> quote))
+					.collect(Collectors.toList());
+			start.countDown();
+			pricingStarted.await();
+			releasePricing.countDown();
+
+			quotes.forEach(quote -> assertTrue(quotes.get(0).join() == quote.join()));
+			assertEquals(1, pricings.get());
+		} finally {
+			releasePricing.countDown();
+			callers.shutdown();
+			pricingExecutor.shutdown();
+		}
+	}
+
+	@Test
+	public void failedTripDealsPricingIsNotCached() {
+		TripDealsCache tripDealsCache = new TripDealsCache();
+		AtomicInteger pricings = new AtomicInteger();
+		UUID userId = UUID.randomUUID();
+		Supplier<List<Provider>> failingOnceTripPricer = () -> {
+			if (pricings.incrementAndGet() == 1) {
+				throw new IllegalStateException("TripPricer unavailable");
+			}
+			return List.of(new Provider(UUID.randomUUID(), "provider", 100));
+		};
+		// priced on the calling thread, the failed quote is complete when the next request comes
+		assertThrows(CompletionException.class, () -> tripDealsCache
+				.getTripDeals(userId, 2, 1, 7, 500, failingOnceTripPricer, Runnable::run).join());
+
+		assertEquals(1, tripDealsCache.getTripDeals(userId, 2, 1, 7, 500, failingOnceTripPricer, Runnable::run)
+				.join().size());
+		assertEquals(2, pricings.get());
+	}
+
 }
@@ -0,0 +1,65 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.user.User;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = { "tourguide.tracking.initial-delay=1h", "tourguide.attractions.refresh-interval=0s" })
+@AutoConfigureMockMvc
+public class TestTourGuideWeb {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private TourGuideService tourGuideService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	public void allCurrentLocationsAreStreamedOnTheWebExecutor() throws Exception {
+		User user = new User(UUID.randomUUID(), "streamed", "000", "streamed@tourGuide.com");
+		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(48.85, 2.35), new Date()));
+		tourGuideService.addUser(user);
+		double completedBefore = webTasksCompleted();
+
+		MvcResult result = mockMvc.perform(get("/getAllCurrentLocations").param("minLatitude", "48.84")
+						.param("maxLatitude", "48.86").param("minLongitude", "2.34").param("maxLongitude", "2.36"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+		String body = result.getResponse().getContentAsString();
+		assertTrue(body.contains(user.getUserId().toString()));
+		assertTrue(body.endsWith("\n"));
+		// the executor counts the task once it returns, shortly after the response is complete
+		long deadline = System.currentTimeMillis() + 5000;
+		while (webTasksCompleted() == completedBefore && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(completedBefore + 1, webTasksCompleted(), 0.0);
+	}
+
+	private double webTasksCompleted() {
+		return meterRegistry.get("executor.completed").tag("name", "web").functionCounter().count();
+	}
+}
@@ -0,0 +1,133 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.config.TourGuideProperties;
+import com.openclassrooms.tourguide.helper.InternalTestHelper;
+import com.openclassrooms.tourguide.mapper.NearAttractionMapperImpl;
+import com.openclassrooms.tourguide.persistence.UserStateJournal;
+import com.openclassrooms.tourguide.service.RewardsService;
+import com.openclassrooms.tourguide.service.TourGuideService;
+import com.openclassrooms.tourguide.service.TripDealsCache;
+import com.openclassrooms.tourguide.sharding.ConsistentHashUserPartition;
+import com.openclassrooms.tourguide.sharding.InMemoryClusterMembership;
+import com.openclassrooms.tourguide.sharding.UserPartition;
+import com.openclassrooms.tourguide.user.InMemoryUserRepository;
+import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserRepository;
+import gpsUtil.GpsUtil;
+import org.junit.jupiter.api.Test;
+import rewardCentral.RewardCentral;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestUserPartition {
+
+	@Test
+	public void everyUserIsOwnedByExactlyOneNode() {
+		List<UserPartition> partitions = new ArrayList<>();
+		for (String nodeId : List.of("node-1", "node-2", "node-3")) {
+			InMemoryClusterMembership membership = new InMemoryClusterMembership(nodeId);
+			membership.join("node-1");
+			membership.join("node-2");
+			membership.join("node-3");
+			partitions.add(new ConsistentHashUserPartition(membership, 128));
+		}
+
+		int[] ownedUsers = new int[partitions.size()];
+		for (int i = 0; i < 3000; i++) {
+			User user = new User(UUID.randomUUID(), "jon" + i, "000", "jon" + i + "@tourGuide.com");
+			int owners = 0;
+			for (int p = 0; p < partitions.size(); p++) {
+				if (partitions.get(p).owns(user)) {
+					owners++;
+					ownedUsers[p]++;
+				}
+			}
+			assertEquals(1, owners);
+		}
+		for (int owned : ownedUsers) {
+			assertTrue(owned > 500);
+		}
+	}
+
+	@Test
+	public void usersOfTheRemainingNodesStayInPlaceWhenANodeLeaves() {
+		InMemoryClusterMembership membership = new InMemoryClusterMembership("node-1");
+		membership.join("node-2");
+		membership.join("node-3");
+		UserPartition partition = new ConsistentHashUserPartition(membership, 128);
+
+		List<User> ownedUsers = new ArrayList<>();
+		List<User> otherUsers = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			User user = new User(UUID.randomUUID(), "jon" + i, "000", "jon" + i + "@tourGuide.com");
+			(partition.owns(user) ? ownedUsers : otherUsers).add(user);
+		}
+
+		membership.leave("node-3");
+		partition.refresh();
+
+		ownedUsers.forEach(user -> assertTrue(partition.owns(user)));
+		assertTrue(otherUsers.stream().anyMatch(partition::owns));
+
+		membership.leave("node-1");
+		partition.refresh();
+
+		assertFalse(ownedUsers.stream().anyMatch(partition::owns));
+	}
+
+	@Test
+	public void usersAddedOnAnyNodeAreTrackedByTheirOwnerThroughTheSharedRepository() {
+		InternalTestHelper.setInternalUserNumber(0);
+		GpsUtil gpsUtil = new GpsUtil();
+		RewardsService rewardsService = new RewardsService(gpsUtil, new RewardCentral());
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		TourGuideProperties properties = new TourGuideProperties();
+		properties.getTracking().setInitialDelay(Duration.ofHours(1));
+		// the nodes share the user repository, which sharding requires
+		UserRepository userRepository = new InMemoryUserRepository();
+		List<TourGuideService> nodes = new ArrayList<>();
+		try {
+			for (String nodeId : List.of("node-1", "node-2", "node-3")) {
+				InMemoryClusterMembership membership = new InMemoryClusterMembership(nodeId);
+				membership.join("node-1");
+				membership.join("node-2");
+				membership.join("node-3");
+				nodes.add(new TourGuideService(gpsUtil, rewardsService, new NearAttractionMapperImpl(), executorService,
+						properties, new ConsistentHashUserPartition(membership, 128), userRepository,
+						UserStateJournal.NOOP, new TripDealsCache(), rewardsService.getAttractionCatalog()));
+			}
+
+			List<User> users = new ArrayList<>();
+			for (int i = 0; i < 300; i++) {
+				User user = new User(UUID.randomUUID(), "jon" + i, "000", "jon" + i + "@tourGuide.com");
+				nodes.get(i % nodes.size()).addUser(user);
+				users.add(user);
+			}
+
+			for (User user : users) {
+				int owners = 0;
+				for (TourGuideService node : nodes) {
+					if (node.isLocalUser(user.getUserId())) {
+						owners++;
+						assertTrue(node.getUser(user.getUserId()) == user);
+					}
+				}
+				assertEquals(1, owners);
+			}
+		} finally {
+			nodes.forEach(TourGuideService::stopTracking);
+			executorService.shutdown();
+			rewardsService.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.openclassrooms.tourguide;
+
+import com.openclassrooms.tourguide.persistence.MappedUserStateJournal;
+import com.openclassrooms.tourguide.user.InMemoryUserRepository;
+import com.openclassrooms.tourguide.user.User;
+import com.openclassrooms.tourguide.user.UserRepository;
+import com.openclassrooms.tourguide.user.UserReward;
+import gpsUtil.location.Attraction;
+import gpsUtil.location.Location;
+import gpsUtil.location.VisitedLocation;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestUserStateJournal {
+
+	@Test
+	public void replayRestoresLocationsAndRewardsAcrossSegments() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		// small segments so the records are spread over several of them
+		MappedUserStateJournal journal = new MappedUserStateJournal(directory, 512, 100);
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		for (int i = 0; i < 50; i++) {
+			journal.appendVisitedLocation(user, new VisitedLocation(user.getUserId(), new Location(i, -i), new Date(i)));
+		}
+		VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), new Location(33.8, -117.9), new Date());
+		Attraction attraction = new Attraction("Disneyland", "Anaheim", "CA", 33.817595, -117.922008);
+		journal.appendUserReward(user, new UserReward(visitedLocation, attraction, 42));
+		journal.close();
+
+		User restored = replay(directory);
+		assertEquals(50, restored.getVisitedLocations().size());
+		assertEquals(49.0, restored.getVisitedLocations().get(49).location.latitude);
+		assertEquals(1, restored.getUserRewards().size());
+		assertEquals("Disneyland", restored.getUserRewards().iterator().next().attraction.attractionName);
+		assertEquals(42, restored.getUserRewards().iterator().next().getRewardPoints());
+	}
+
+	@Test
+	public void compactionKeepsOnlyTheCurrentState() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		MappedUserStateJournal journal = new MappedUserStateJournal(directory, 512, 2);
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		for (int i = 0; i < 50; i++) {
+			VisitedLocation visitedLocation = new VisitedLocation(user.getUserId(), new Location(i, i), new Date(i));
+			user.addToVisitedLocations(visitedLocation);
+			journal.appendVisitedLocation(user, visitedLocation);
+		}
+		assertTrue(journal.needsCompaction());
+		user.clearVisitedLocations();
+		user.addToVisitedLocations(new VisitedLocation(user.getUserId(), new Location(1, 1), new Date()));
+		journal.compact(List.of(user));
+		journal.close();
+
+		assertEquals(1, replay(directory).getVisitedLocations().size());
+	}
+
+	@Test
+	public void replayRecreatesTheUsersAddedAtRuntime() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		MappedUserStateJournal journal = new MappedUserStateJournal(directory, 512, 100);
+		User user = new User(UUID.randomUUID(), "jane", "111", "jane@tourGuide.com");
+		journal.appendUser(user);
+		journal.appendVisitedLocation(user, new VisitedLocation(user.getUserId(), new Location(1, 2), new Date(3)));
+		journal.close();
+
+		UserRepository userRepository = new InMemoryUserRepository();
+		new MappedUserStateJournal(directory, 512, 100).replay(userRepository, User::new);
+		User restored = userRepository.findByUserName("jane");
+		assertEquals(user.getUserId(), restored.getUserId());
+		assertEquals("jane@tourGuide.com", restored.getEmailAddress());
+		assertEquals(1, restored.getVisitedLocations().size());
+	}
+
+	@Test
+	public void replayStopsAtATornRecord() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		MappedUserStateJournal journal = new MappedUserStateJournal(directory, 512, 100);
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		for (int i = 0; i < 3; i++) {
+			journal.appendVisitedLocation(user, new VisitedLocation(user.getUserId(), new Location(i, i), new Date(i)));
+		}
+		journal.close();
+		// a record is its length, checksum, type, name and location: clears the location of the second one
+		int recordSize = 2 * Integer.BYTES + 1 + Short.BYTES + "jon".length() + 3 * Long.BYTES;
+		Path segment = directory.resolve("segment-00000001.log");
+		byte[] bytes = Files.readAllBytes(segment);
+		Arrays.fill(bytes, 2 * recordSize - 3 * Long.BYTES, 2 * recordSize, (byte) 0);
+		Files.write(segment, bytes);
+
+		assertEquals(1, replay(directory).getVisitedLocations().size());
+
+		// the journal appends over the torn record
+		journal = new MappedUserStateJournal(directory, 512, 100);
+		journal.appendVisitedLocation(user, new VisitedLocation(user.getUserId(), new Location(9, 9), new Date(9)));
+		journal.close();
+		List<VisitedLocation> visitedLocations = replay(directory).getVisitedLocations();
+		assertEquals(2, visitedLocations.size());
+		assertEquals(9.0, visitedLocations.get(1).location.latitude);
+	}
+
+	@Test
+	public void reopeningTheJournalAppendsToItsLastSegment() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		for (int i = 0; i < 3; i++) {
+			MappedUserStateJournal journal = new MappedUserStateJournal(directory, 512, 100);
+			journal.appendVisitedLocation(user, new VisitedLocation(user.getUserId(), new Location(i, i), new Date(i)));
+			journal.close();
+		}
+
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(1, files.count());
+		}
+		assertEquals(3, replay(directory).getVisitedLocations().size());
+	}
+
+	private User replay(Path directory) {
+		UserRepository userRepository = new InMemoryUserRepository();
+		User user = new User(UUID.randomUUID(), "jon", "000", "jon@tourGuide.com");
+		userRepository.putIfAbsent(user);
+		new MappedUserStateJournal(directory, 512, 100).replay(userRepository, User::new);
+		return user;
+	}
+}
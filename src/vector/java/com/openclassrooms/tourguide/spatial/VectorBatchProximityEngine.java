@@ -0,0 +1,51 @@
+package com.openclassrooms.tourguide.spatial;
+
+import gpsUtil.location.Attraction;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * Tests as many locations against an attraction at once as the preferred vector shape of the CPU holds doubles.
+ * Loaded by {@link BatchProximityEngine#vectorized()}.
+ */
+class VectorBatchProximityEngine implements BatchProximityEngine {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public void forEachWithin(AttractionIndex index, LocationBatch locations, ProximityConsumer consumer) {
+		List<Attraction> attractions = index.getAttractions();
+		double[] xs = locations.xs;
+		double[] ys = locations.ys;
+		double[] zs = locations.zs;
+		int size = locations.size();
+		int loopBound = SPECIES.loopBound(size);
+		for (int position = 0; position < attractions.size(); position++) {
+			Attraction attraction = attractions.get(position);
+			double x = index.xs[position];
+			double y = index.ys[position];
+			double z = index.zs[position];
+			int location = 0;
+			for (; location < loopBound; location += SPECIES.length()) {
+				// same operations as the scalar engine so both round the dot product alike
+				DoubleVector dot = DoubleVector.fromArray(SPECIES, xs, location).mul(x)
+						.add(DoubleVector.fromArray(SPECIES, ys, location).mul(y))
+						.add(DoubleVector.fromArray(SPECIES, zs, location).mul(z));
+				VectorMask<Double> near = dot.compare(VectorOperators.GE, index.cosRadius);
+				if (near.anyTrue()) {
+					for (long lanes = near.toLong(); lanes != 0; lanes &= lanes - 1) {
+						consumer.accept(location + Long.numberOfTrailingZeros(lanes), attraction);
+					}
+				}
+			}
+			for (; location < size; location++) {
+				if (xs[location] * x + ys[location] * y + zs[location] * z >= index.cosRadius) {
+					consumer.accept(location, attraction);
+				}
+			}
+		}
+	}
+}